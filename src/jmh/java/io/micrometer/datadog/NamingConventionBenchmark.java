@@ -0,0 +1,60 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.Meter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of converting names, tag keys and tag values with {@link DatadogNamingConvention}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NamingConventionBenchmark {
+
+    @Param({ "typical", "pathological" })
+    public String input;
+
+    private final DatadogNamingConvention convention = new DatadogNamingConvention();
+
+    private String name;
+
+    private String tagKey;
+
+    private String tagValue;
+
+    @Setup
+    public void setup() {
+        if (input.equals("typical")) {
+            name = "http.server.requests";
+            tagKey = "status";
+            tagValue = "200";
+        }
+        else {
+            // needs escaping, a prefix, slash replacement, truncation and trailing dot removal
+            name = "1/" + "very.long.\"quoted\".name/".repeat(12) + "...";
+            tagKey = "42\"key\\with/escapes";
+            tagValue = "/api/v1/users/{id}/\"orders\"\t\u00e9";
+        }
+    }
+
+    @Benchmark
+    public String name() {
+        return convention.name(name, Meter.Type.TIMER, null);
+    }
+
+    @Benchmark
+    public String tagKey() {
+        return convention.tagKey(tagKey);
+    }
+
+    @Benchmark
+    public String tagValue() {
+        return convention.tagValue(tagValue);
+    }
+
+}
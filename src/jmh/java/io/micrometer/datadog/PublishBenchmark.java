@@ -0,0 +1,76 @@
+package io.micrometer.datadog;
+
+import com.timgroup.statsd.NoOpStatsDClient;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Tags;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency of a full {@link DatadogMeterRegistry#publish()} pass against a no-op
+ * Dogstatsd client. Run with {@code -prof gc} to see the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PublishBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int meters;
+
+    private DatadogMeterRegistry registry;
+
+    // gauges only hold on to their value weakly
+    private final List<AtomicLong> gaugeValues = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        registry = DatadogMeterRegistry.builder(new DatadogConfig() {
+            @Override
+            public String get(String key) {
+                return null;
+            }
+
+            @Override
+            public boolean enabled() {
+                return false;
+            }
+        }).clock(Clock.SYSTEM).statsDClient(new NoOpStatsDClient()).build();
+
+        // a mix resembling a typical service: mostly counters and timers, some gauges
+        for (int i = 0; i < meters; i++) {
+            Tags tags = Tags.of("service", "benchmark", "endpoint", "/api/v1/resource/" + (i / 4));
+            switch (i % 4) {
+                case 0:
+                    registry.counter("http.requests." + (i % 50), tags).increment();
+                    break;
+                case 1:
+                    registry.timer("http.latency." + (i % 50), tags).record(i, TimeUnit.MILLISECONDS);
+                    break;
+                case 2:
+                    registry.summary("http.payload." + (i % 50), tags).record(i);
+                    break;
+                default:
+                    gaugeValues.add(registry.gauge("pool.size." + (i % 50), tags, new AtomicLong(i)));
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        registry.close();
+    }
+
+    @Benchmark
+    public void publish() {
+        registry.publish();
+    }
+
+}
@@ -0,0 +1,96 @@
+package io.micrometer.datadog;
+
+import com.timgroup.statsd.NoOpStatsDClient;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call recording throughput of the meters created by {@link DatadogMeterRegistry},
+ * with step-aggregated and direct distribution timers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordingBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean directDistributions;
+
+    private DatadogMeterRegistry registry;
+
+    private Counter counter;
+
+    private Timer timer;
+
+    @Setup
+    public void setup() {
+        registry = DatadogMeterRegistry.builder(new DatadogConfig() {
+            @Override
+            public String get(String key) {
+                return null;
+            }
+
+            @Override
+            public boolean enabled() {
+                return false;
+            }
+
+            @Override
+            public boolean directDistributions() {
+                return directDistributions;
+            }
+        }).clock(Clock.SYSTEM).statsDClient(new NoOpStatsDClient()).build();
+
+        counter = registry.counter("benchmark.counter", "k", "v");
+        timer = registry.timer("benchmark.timer", "k", "v");
+    }
+
+    @TearDown
+    public void tearDown() {
+        registry.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void counterIncrement() {
+        counter.increment();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void counterIncrement8Threads() {
+        counter.increment();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void counterIncrement32Threads() {
+        counter.increment();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void timerRecord() {
+        timer.record(42, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void timerRecord8Threads() {
+        timer.record(42, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void timerRecord32Threads() {
+        timer.record(42, TimeUnit.MILLISECONDS);
+    }
+
+}
@@ -0,0 +1,204 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Measurement;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Statistic;
+import io.micrometer.core.instrument.util.NamedThreadFactory;
+import io.micrometer.core.lang.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Evaluates the user callbacks behind gauges, function counters and function timers
+ * ahead of a publish, concurrently on a pool of {@link DatadogConfig#callbackThreads()},
+ * so that one slow callback doesn't hold up every meter behind it.
+ * <p>
+ * The publisher waits for all callbacks together for at most
+ * {@link DatadogConfig#callbackTimeout()}. A gauge whose callback has not returned by
+ * then, or has thrown, is published with its last good value, or not at all if it never
+ * had one. Function counters and timers measure what changed over the previous step,
+ * which the next good evaluation still includes, so each of their measurements is only
+ * published once, and a missed evaluation publishes nothing. A callback still running is not started again until it returns, and one
+ * that runs past the timeout on {@link #SLOW_STRIKES} publishes in a row is logged.
+ * Callbacks that never got a thread before the timeout aren't held against their meter.
+ */
+final class CallbackEvaluator {
+
+    static final int SLOW_STRIKES = 3;
+
+    private static final Logger logger = LoggerFactory.getLogger(CallbackEvaluator.class);
+
+    private final ExecutorService executor;
+
+    private final Duration timeout;
+
+    private final PublishTelemetry telemetry;
+
+    private final ConcurrentMap<Meter, Callback> callbacks = new ConcurrentHashMap<>();
+
+    CallbackEvaluator(int threads, Duration timeout, PublishTelemetry telemetry) {
+        this.executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("datadog-metrics-callback"));
+        this.timeout = timeout;
+        this.telemetry = telemetry;
+    }
+
+    static boolean hasCallback(Meter meter) {
+        return (meter instanceof Gauge || meter instanceof FunctionCounter || meter instanceof FunctionTimer)
+                && !PublishTelemetry.isInternal(meter.getId());
+    }
+
+    /**
+     * Evaluates the callbacks of {@code meters}, and returns once they have all returned
+     * or the timeout has passed.
+     */
+    void evaluate(List<Meter> meters) {
+        List<Callback> pending = new ArrayList<>();
+        for (Meter meter : meters) {
+            if (hasCallback(meter)) {
+                Callback callback = callbacks.computeIfAbsent(meter, Callback::new);
+                callback.start();
+                pending.add(callback);
+            }
+        }
+        long deadline = System.nanoTime() + timeout.toNanos();
+        for (Callback callback : pending) {
+            callback.await(deadline);
+        }
+    }
+
+    /**
+     * @return The measurements {@code meter} had at its last evaluation, or for a function
+     * counter or timer, at its last evaluation not yet published.
+     */
+    Iterable<Measurement> measure(Meter meter) {
+        Callback callback = callbacks.get(meter);
+        if (callback == null) {
+            return meter.measure();
+        }
+        return meter instanceof Gauge ? callback.measurements.get()
+                : callback.measurements.getAndSet(Collections.emptyList());
+    }
+
+    void removed(Meter meter) {
+        callbacks.remove(meter);
+    }
+
+    void close() {
+        // interrupt callbacks that are stuck
+        executor.shutdownNow();
+    }
+
+    private final class Callback implements Runnable {
+
+        private final Meter meter;
+
+        private final AtomicReference<List<Measurement>> measurements = new AtomicReference<>(
+                Collections.emptyList());
+
+        private volatile boolean running;
+
+        @Nullable
+        private Future<?> evaluation;
+
+        /**
+         * Only touched by the publishing thread.
+         */
+        private int strikes;
+
+        Callback(Meter meter) {
+            this.meter = meter;
+        }
+
+        void start() {
+            if (evaluation != null && !evaluation.isDone()) {
+                return;
+            }
+            try {
+                evaluation = executor.submit(this);
+            }
+            catch (RejectedExecutionException e) {
+                // closing, evaluate on this thread
+                evaluation = null;
+                run();
+            }
+        }
+
+        @Override
+        public void run() {
+            running = true;
+            try {
+                List<Measurement> measurements = new ArrayList<>(4);
+                if (meter instanceof DatadogCallbackGauge) {
+                    // unlike value(), throws rather than returning NaN
+                    double value = ((DatadogCallbackGauge<?>) meter).evaluate();
+                    measurements.add(new Measurement(() -> value, Statistic.VALUE));
+                }
+                else {
+                    for (Measurement measurement : meter.measure()) {
+                        double value = measurement.getValue();
+                        measurements.add(new Measurement(() -> value, measurement.getStatistic()));
+                    }
+                }
+                this.measurements.set(measurements);
+            }
+            catch (Throwable e) {
+                telemetry.callbackFailed();
+                logger.debug("the callback of meter '{}' failed",
+                        meter.getId().getName(), e);
+            }
+            finally {
+                running = false;
+            }
+        }
+
+        void await(long deadline) {
+            if (evaluation == null) {
+                return;
+            }
+            try {
+                evaluation.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                strikes = 0;
+            }
+            catch (TimeoutException e) {
+                if (running) {
+                    timedOut();
+                }
+            }
+            catch (ExecutionException e) {
+                // run() catches everything
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void timedOut() {
+            telemetry.callbackTimedOut();
+            if (++strikes == SLOW_STRIKES) {
+                logger.warn("the callback of meter '{}' has run past the {} callback timeout on {} publishes in a row, "
+                        + "its last good value or nothing is published until it returns", meter.getId().getName(), timeout,
+                        SLOW_STRIKES);
+            }
+        }
+
+    }
+
+}
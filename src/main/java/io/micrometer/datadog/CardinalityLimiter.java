@@ -0,0 +1,231 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.config.MeterFilterReply;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.lang.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a runaway tag, such as a request id, from creating an unbounded number of meters.
+ * Once a meter name has {@link DatadogConfig#maxTagSetsPerName()} distinct tag sets, or
+ * the registry has {@link DatadogConfig#maxMeters()} meters, new ids are mapped to one
+ * overflow meter per name, tagged {@code cardinality:overflow}, instead. Overflow meters
+ * count against {@code maxMeters} too, so once the registry is full, new ids of a name
+ * without one are denied.
+ * <p>
+ * Tag sets are remembered by hash only, in a set per name that never grows past the
+ * limit, so two tag sets may rarely be taken for one. Rejected ids are counted once each,
+ * also by hash, in a set that is cleared once it holds {@link #MAX_REJECTED_IDS}, so an
+ * id may rarely be counted again. The registry's own telemetry meters are never limited.
+ * <p>
+ * The limit applies to ids as the registry's other filters leave them, and only to ids
+ * they accept. Filters configured on the registry after it was built are therefore
+ * {@link #addFilter added} to the limiter, which runs them ahead of the limit, rather than
+ * after it.
+ */
+final class CardinalityLimiter implements MeterFilter {
+
+    static final Tag OVERFLOW_TAG = Tag.of("cardinality", "overflow");
+
+    private static final Tags OVERFLOW_TAGS = Tags.of(OVERFLOW_TAG);
+
+    /**
+     * Marks an id that is over the limit and has no overflow meter to go to.
+     */
+    private static final Tags DENIED_TAGS = Tags.of("cardinality", "denied");
+
+    static final int MAX_REJECTED_IDS = 10_000;
+
+    private static final Logger logger = LoggerFactory.getLogger(CardinalityLimiter.class);
+
+    private final int maxTagSetsPerName;
+
+    private final int maxMeters;
+
+    private final PublishTelemetry telemetry;
+
+    private final ConcurrentMap<String, Set<Integer>> tagSetsByName = new ConcurrentHashMap<>();
+
+    private final AtomicInteger meters = new AtomicInteger();
+
+    private final Set<String> overflowedNames = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Names that have an overflow meter, which takes one of the {@link #meters}.
+     */
+    private final Set<String> overflowMeters = ConcurrentHashMap.newKeySet();
+
+    private final Set<Long> rejectedIds = ConcurrentHashMap.newKeySet();
+
+    private final List<MeterFilter> filters = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param maxTagSetsPerName Tag sets allowed per name, or {@code -1} for no limit.
+     * @param maxMeters Meters allowed overall, or {@code -1} for no limit.
+     */
+    CardinalityLimiter(int maxTagSetsPerName, int maxMeters, PublishTelemetry telemetry) {
+        this.maxTagSetsPerName = maxTagSetsPerName;
+        this.maxMeters = maxMeters;
+        this.telemetry = telemetry;
+    }
+
+    /**
+     * Runs {@code filter} ahead of the limit, after the filters added before it.
+     */
+    void addFilter(MeterFilter filter) {
+        filters.add(filter);
+    }
+
+    @Override
+    public Meter.Id map(Meter.Id id) {
+        for (MeterFilter filter : filters) {
+            id = filter.map(id);
+        }
+        // a denied id never becomes a meter that would free its slot
+        if (accept(id) == MeterFilterReply.DENY) {
+            return id;
+        }
+        return limit(id);
+    }
+
+    @Override
+    public MeterFilterReply accept(Meter.Id id) {
+        if (id.getTagsAsIterable().equals(DENIED_TAGS)) {
+            return MeterFilterReply.DENY;
+        }
+        for (MeterFilter filter : filters) {
+            MeterFilterReply reply = filter.accept(id);
+            if (reply != MeterFilterReply.NEUTRAL) {
+                return reply;
+            }
+        }
+        return MeterFilterReply.NEUTRAL;
+    }
+
+    @Override
+    @Nullable
+    public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+        for (MeterFilter filter : filters) {
+            DistributionStatisticConfig filtered = filter.configure(id, config);
+            if (filtered != null) {
+                config = filtered;
+            }
+        }
+        return config;
+    }
+
+    private Meter.Id limit(Meter.Id id) {
+        if (PublishTelemetry.isInternal(id)) {
+            return id;
+        }
+        Iterable<Tag> tags = id.getTagsAsIterable();
+        if (tags.equals(OVERFLOW_TAGS)) {
+            return id;
+        }
+
+        int tagSet = tags.hashCode();
+        Set<Integer> tagSets = tagSetsByName.get(id.getName());
+        if (tagSets != null && tagSets.contains(tagSet)) {
+            return id;
+        }
+        if (tagSets == null) {
+            if (isFull()) {
+                return overflow(id, "the registry has " + maxMeters + " meters");
+            }
+            tagSets = tagSetsByName.computeIfAbsent(id.getName(), name -> ConcurrentHashMap.newKeySet());
+        }
+
+        synchronized (tagSets) {
+            if (tagSets.contains(tagSet)) {
+                return id;
+            }
+            if (maxTagSetsPerName != -1 && tagSets.size() >= maxTagSetsPerName) {
+                return overflow(id, "it has " + maxTagSetsPerName + " tag sets");
+            }
+            if (!reserve()) {
+                return overflow(id, "the registry has " + maxMeters + " meters");
+            }
+            tagSets.add(tagSet);
+            return id;
+        }
+    }
+
+    /**
+     * Frees the slot of a removed meter.
+     */
+    void removed(Meter.Id id) {
+        if (id.getTagsAsIterable().equals(OVERFLOW_TAGS)) {
+            if (overflowMeters.remove(id.getName())) {
+                meters.decrementAndGet();
+            }
+            return;
+        }
+        Set<Integer> tagSets = tagSetsByName.get(id.getName());
+        if (tagSets != null && tagSets.remove(id.getTagsAsIterable().hashCode())) {
+            meters.decrementAndGet();
+        }
+    }
+
+    private boolean isFull() {
+        return maxMeters != -1 && meters.get() >= maxMeters;
+    }
+
+    /**
+     * @return {@code true} if a slot was taken for a new meter, {@code false} if the
+     * registry is full.
+     */
+    private boolean reserve() {
+        int n;
+        do {
+            n = meters.get();
+            if (maxMeters != -1 && n >= maxMeters) {
+                return false;
+            }
+        } while (!meters.compareAndSet(n, n + 1));
+        return true;
+    }
+
+    private Meter.Id overflow(Meter.Id id, String reason) {
+        // the registry looks every id up again on each registration
+        long key = 31L * id.getName().hashCode() + id.getTagsAsIterable().hashCode();
+        if (rejectedIds.size() >= MAX_REJECTED_IDS) {
+            rejectedIds.clear();
+        }
+        if (rejectedIds.add(key)) {
+            telemetry.rejected();
+        }
+
+        String name = id.getName();
+        if (!overflowMeters.contains(name)) {
+            synchronized (overflowMeters) {
+                if (!overflowMeters.contains(name)) {
+                    if (!reserve()) {
+                        if (overflowedNames.add(name)) {
+                            logger.warn("new tag sets of meter '{}' are not recorded because {} and it has no {} "
+                                    + "meter", name, reason, OVERFLOW_TAG);
+                        }
+                        return id.replaceTags(DENIED_TAGS);
+                    }
+                    overflowMeters.add(name);
+                }
+            }
+        }
+        if (overflowedNames.add(name)) {
+            logger.warn("new tag sets of meter '{}' are recorded with {} because {}", name, OVERFLOW_TAG, reason);
+        }
+        return id.replaceTags(OVERFLOW_TAGS);
+    }
+
+}
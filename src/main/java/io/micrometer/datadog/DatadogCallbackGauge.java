@@ -0,0 +1,52 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.AbstractMeter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.lang.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * A gauge like {@link io.micrometer.core.instrument.internal.DefaultGauge}, whose
+ * {@link #value()} turns an exception thrown by its function into {@code NaN} just the
+ * same, but which the {@link CallbackEvaluator} evaluates through {@link #evaluate()},
+ * which passes the exception on, so that it can publish the last good value instead.
+ */
+final class DatadogCallbackGauge<T> extends AbstractMeter implements Gauge {
+
+    private static final Logger logger = LoggerFactory.getLogger(DatadogCallbackGauge.class);
+
+    private final WeakReference<T> ref;
+
+    private final ToDoubleFunction<T> value;
+
+    DatadogCallbackGauge(Meter.Id id, @Nullable T obj, ToDoubleFunction<T> value) {
+        super(id);
+        this.ref = new WeakReference<>(obj);
+        this.value = value;
+    }
+
+    @Override
+    public double value() {
+        try {
+            return evaluate();
+        }
+        catch (Throwable e) {
+            logger.debug("failed to apply the value function of gauge '{}'", getId().getName(), e);
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * @return The function's value, or {@code NaN} if the gauged object was collected.
+     */
+    double evaluate() {
+        T obj = ref.get();
+        return obj == null ? Double.NaN : value.applyAsDouble(obj);
+    }
+
+}
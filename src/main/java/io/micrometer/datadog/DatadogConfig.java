@@ -1,8 +1,14 @@
 package io.micrometer.datadog;
 
+import io.micrometer.core.instrument.config.validate.InvalidReason;
 import io.micrometer.core.instrument.config.validate.Validated;
 import io.micrometer.core.instrument.step.StepRegistryConfig;
+import io.micrometer.core.lang.Nullable;
 
+import java.time.Duration;
+import java.util.function.Function;
+
+import static io.micrometer.core.instrument.config.MeterRegistryConfigValidator.check;
 import static io.micrometer.core.instrument.config.MeterRegistryConfigValidator.checkAll;
 import static io.micrometer.core.instrument.config.validate.PropertyValidator.*;
 import static io.micrometer.core.instrument.config.validate.PropertyValidator.getInteger;
@@ -17,6 +23,74 @@ public interface DatadogConfig extends StepRegistryConfig {
         return "datadog";
     }
 
+    /**
+     * @return {@link DatadogPublishMode#DOGSTATSD} if metrics are sent to a DogStatsD
+     * server, or {@link DatadogPublishMode#HTTP} if they are posted straight to the
+     * Datadog metrics API, which needs {@link #apiKey()}.
+     */
+    default DatadogPublishMode publishMode() {
+        return getEnum(this, DatadogPublishMode.class, "publishMode").orElse(DatadogPublishMode.DOGSTATSD);
+    }
+
+    /**
+     * @return {@code null} the API key to publish with when {@link #publishMode()} is
+     * {@link DatadogPublishMode#HTTP}.
+     */
+    @Nullable
+    default String apiKey() {
+        return getSecret(this, "apiKey").orElse(null);
+    }
+
+    /**
+     * @return {@code https://api.datadoghq.com} the Datadog site the metrics API is
+     * called on when {@link #publishMode()} is {@link DatadogPublishMode#HTTP}, for
+     * example {@code https://api.datadoghq.eu}.
+     * <a href="https://docs.datadoghq.com/getting_started/site/">Datadog Sites</a>
+     */
+    default String uri() {
+        return getUrlString(this, "uri").orElse("https://api.datadoghq.com");
+    }
+
+    /**
+     * @return {@code instance} the tag whose value is reported as the series' host when
+     * publishing over HTTP, or {@code null} to report no host.
+     */
+    @Nullable
+    default String hostTag() {
+        return getString(this, "hostTag").orElse("instance");
+    }
+
+    /**
+     * @return {@code 1000000} the uncompressed size in bytes after which a payload is
+     * closed and sent when publishing over HTTP. The API takes at most 5 MB uncompressed
+     * and 500 KB compressed.
+     */
+    default Integer httpPayloadBytes() {
+        return getInteger(this, "httpPayloadBytes").orElse(1_000_000);
+    }
+
+    /**
+     * @return {@code 2} the number of payloads sent at the same time when publishing over
+     * HTTP.
+     */
+    default Integer httpConcurrency() {
+        return getInteger(this, "httpConcurrency").orElse(2);
+    }
+
+    /**
+     * @return {@code 3} how many times a payload is retried when publishing over HTTP.
+     */
+    default Integer httpMaxRetries() {
+        return getInteger(this, "httpMaxRetries").orElse(3);
+    }
+
+    /**
+     * @return {@code 10s} the connect and request timeout when publishing over HTTP.
+     */
+    default Duration httpTimeout() {
+        return getDuration(this, "httpTimeout").orElse(Duration.ofSeconds(10));
+    }
+
     /**
      * @return {@code true} if client-side telemetry should be enabled when in Dogstatsd
      * mode.
@@ -35,6 +109,73 @@ public interface DatadogConfig extends StepRegistryConfig {
         return getInteger(this, "maxPacketSizeBytes").orElse(-1);
     }
 
+    /**
+     * @return {@code null} the address of the Dogstatsd server, either a Unix domain
+     * socket as {@code unix:///var/run/datadog/dsd.socket} or UDP as
+     * {@code udp://host:port} or {@code host:port}. When not set, the client falls back
+     * to the {@code DD_AGENT_HOST} and {@code DD_DOGSTATSD_PORT} environment variables.
+     * <a href="https://docs.datadoghq.com/developers/dogstatsd/unix_socket/">DogStatsD over Unix Domain Socket</a>
+     */
+    @Nullable
+    default String statsdAddress() {
+        return getString(this, "statsdAddress").orElse(null);
+    }
+
+    /**
+     * @return {@code -1} the number of threads writing packets to the socket, or
+     * {@code -1} to use the client's default.
+     * <a href="https://github.com/DataDog/java-dogstatsd-client#configuration">Client Configuration</a>
+     */
+    default Integer senderWorkers() {
+        return getInteger(this, "senderWorkers").orElse(-1);
+    }
+
+    /**
+     * @return {@code -1} the number of threads serializing metrics into packets, or
+     * {@code -1} to use the client's default.
+     * <a href="https://github.com/DataDog/java-dogstatsd-client#configuration">Client Configuration</a>
+     */
+    default Integer processorWorkers() {
+        return getInteger(this, "processorWorkers").orElse(-1);
+    }
+
+    /**
+     * @return {@code -1} the number of metrics the client queues before it drops or,
+     * when {@link #blocking()}, blocks, or {@code -1} to use the client's default.
+     * <a href="https://github.com/DataDog/java-dogstatsd-client#configuration">Client Configuration</a>
+     */
+    default Integer queueSize() {
+        return getInteger(this, "queueSize").orElse(-1);
+    }
+
+    /**
+     * @return {@code -1} the socket's send buffer size in bytes, or {@code -1} to use
+     * the client's default.
+     * <a href="https://github.com/DataDog/java-dogstatsd-client#configuration">Client Configuration</a>
+     */
+    default Integer socketBufferSize() {
+        return getInteger(this, "socketBufferSize").orElse(-1);
+    }
+
+    /**
+     * @return {@code -1} the number of packet buffers the client pools, or {@code -1} to
+     * use the client's default.
+     * <a href="https://github.com/DataDog/java-dogstatsd-client#configuration">Client Configuration</a>
+     */
+    default Integer bufferPoolSize() {
+        return getInteger(this, "bufferPoolSize").orElse(-1);
+    }
+
+    /**
+     * @return {@code false} if metrics should be dropped when the client's queue is
+     * full. When {@code true}, recording and publishing threads block until there is
+     * room instead.
+     * <a href="https://github.com/DataDog/java-dogstatsd-client#configuration">Client Configuration</a>
+     */
+    default boolean blocking() {
+        return getBoolean(this, "blocking").orElse(false);
+    }
+
     /**
      * @return {@code false} if client-side aggregation should be enabled when in
      * Dogstatsd mode.
@@ -63,8 +204,330 @@ public interface DatadogConfig extends StepRegistryConfig {
         return getInteger(this, "aggregationShards").orElse(4);
     }
 
+    /**
+     * @return {@code true} if timers and distribution summaries should send every
+     * recorded value straight to Dogstatsd as a distribution, instead of publishing
+     * step-aggregated values. Percentiles are then computed by Datadog across all hosts,
+     * and the client's buffering batches the values on the way out.
+     * <a href="https://docs.datadoghq.com/metrics/types/?tab=distribution#metric-types">Distributions</a>
+     */
+    default boolean directDistributions() {
+        return getBoolean(this, "directDistributions").orElse(false);
+    }
+
+    /**
+     * @return {@code false} if distribution values should be sent as one message per
+     * value. When {@code true}, the values of a timer or distribution summary are packed
+     * into multi-value messages up to {@link #maxPacketSizeBytes()}, which needs an
+     * Agent that speaks DogStatsD protocol v1.1 (6.25.0/7.25.0 or later). With
+     * {@link #directDistributions()}, recorded values are then buffered and sent in
+     * batches, at the latest on the next publish.
+     * <a href="https://docs.datadoghq.com/developers/dogstatsd/datagram_shell/?tab=metrics#dogstatsd-protocol-v11">DogStatsD protocol v1.1</a>
+     */
+    default boolean packDistributions() {
+        return getBoolean(this, "packDistributions").orElse(false);
+    }
+
+    /**
+     * @return The number of values per second each direct distribution may send, or
+     * {@code -1} to send every value. Direct distributions recorded more often are sampled
+     * down to about this rate, and send their values with the sample rate so that Datadog
+     * scales their counts back up. With {@link #packDistributions()}, whole packed messages
+     * are sampled. Meters can be exempted with
+     * {@link DatadogMeterRegistry.Builder#unsampledDistributions}.
+     */
+    default Integer distributionSampleBudget() {
+        return getInteger(this, "distributionSampleBudget").orElse(-1);
+    }
+
+    /**
+     * @return {@code false} if publishing should go through the Dogstatsd client. When
+     * {@code true}, publish passes are written by the registry's own encoder instead,
+     * which keeps every meter's name and tags as UTF-8 bytes and formats values straight
+     * into pooled packet buffers, so that publishing allocates next to nothing. It sends
+     * to {@link #statsdAddress()}, with {@link #maxPacketSizeBytes()} and
+     * {@link #bufferPoolSize()}, while direct distributions and client-side aggregation
+     * still use the client.
+     */
+    default boolean builtInSender() {
+        return getBoolean(this, "builtInSender").orElse(false);
+    }
+
+    /**
+     * @return {@code null} the file that packets are spilled to when the
+     * {@link #builtInSender()} cannot send them, for example while the Agent restarts, or
+     * {@code null} to drop them. Spilled counts and gauges are replayed with their
+     * original timestamps once the server takes packets again; distributions cannot be
+     * timestamped and are dropped. Sending no longer blocks on a full socket once this is
+     * set. Over UDP, a server that is down goes unnoticed, so this mostly helps with Unix
+     * domain sockets.
+     */
+    @Nullable
+    default String spillFile() {
+        return getString(this, "spillFile").orElse(null);
+    }
+
+    /**
+     * @return {@code 16777216} the size of {@link #spillFile()} in bytes. The oldest
+     * packets are evicted when it is full.
+     */
+    default Integer spillMaxBytes() {
+        return getInteger(this, "spillMaxBytes").orElse(16 * 1024 * 1024);
+    }
+
+    /**
+     * @return {@code 262144} how many bytes of spilled packets are replayed after each
+     * publish, so that catching up never holds up live publishing for long.
+     */
+    default Integer spillReplayBytes() {
+        return getInteger(this, "spillReplayBytes").orElse(256 * 1024);
+    }
+
+    /**
+     * @return {@code -1} the number of distinct tag sets a meter name may have, or
+     * {@code -1} for no limit. Further tag sets are all recorded by one meter of that
+     * name tagged {@code cardinality:overflow}, and counted in
+     * {@link DatadogPublishStats#getMetersRejected()}.
+     */
+    default Integer maxTagSetsPerName() {
+        return getInteger(this, "maxTagSetsPerName").orElse(-1);
+    }
+
+    /**
+     * @return {@code -1} the number of meters the registry may have, or {@code -1} for no
+     * limit. Once reached, new meters are recorded like those over
+     * {@link #maxTagSetsPerName()}. Overflow meters count against the limit too, so new
+     * meters of a name that has none yet are not recorded at all.
+     */
+    default Integer maxMeters() {
+        return getInteger(this, "maxMeters").orElse(-1);
+    }
+
+    /**
+     * @return {@code 1} the number of shards the meters are split into on each publish.
+     * Shards are written concurrently to the same Dogstatsd client, on a bounded pool of
+     * that many threads, which shortens publishing of very large registries.
+     */
+    default Integer publishParallelism() {
+        return getInteger(this, "publishParallelism").orElse(1);
+    }
+
+    /**
+     * @return {@code true} if counters, timers and distribution summaries that were not
+     * recorded to during a step should be skipped when publishing, instead of sending
+     * zeros. Gauges and function-based meters are always published.
+     */
+    default boolean skipIdleMeters() {
+        return getBoolean(this, "skipIdleMeters").orElse(false);
+    }
+
+    /**
+     * @return {@code 0s} how long idle meters keep sending zeros after their last
+     * recording when {@link #skipIdleMeters()} is enabled, which keeps graphs continuous
+     * across short pauses.
+     */
+    default Duration idleMeterKeepalive() {
+        return getDuration(this, "idleMeterKeepalive").orElse(Duration.ZERO);
+    }
+
+    /**
+     * @return {@code 1} how many steps a gauge may go without being sent while its value
+     * stays within {@link #gaugeChangeThreshold()} or
+     * {@link #gaugeRelativeChangeThreshold()} of the last value sent. The default of
+     * {@code 1} sends every gauge on every step.
+     */
+    default Integer gaugeHeartbeatSteps() {
+        return getInteger(this, "gaugeHeartbeatSteps").orElse(1);
+    }
+
+    /**
+     * @return {@code 0} the absolute change below which a gauge value counts as
+     * unchanged.
+     */
+    default double gaugeChangeThreshold() {
+        return getDouble(this, "gaugeChangeThreshold").orElse(0.0);
+    }
+
+    /**
+     * @return {@code 0} the change, as a fraction of the last value sent, below which a
+     * gauge value counts as unchanged.
+     */
+    default double gaugeRelativeChangeThreshold() {
+        return getDouble(this, "gaugeRelativeChangeThreshold").orElse(0.0);
+    }
+
+    /**
+     * @return {@code true} if the registry should publish metrics about its own work,
+     * such as publish duration and datapoints sent by type, under the reserved
+     * {@code micrometer.registry.} prefix. The same numbers are always available from
+     * {@link DatadogMeterRegistry#publishStats()}.
+     */
+    default boolean registryTelemetry() {
+        return getBoolean(this, "registryTelemetry").orElse(false);
+    }
+
+    /**
+     * @return {@code false} if the Dogstatsd client, with its threads and socket, and the
+     * publishing thread should be started when the registry is built. When {@code true},
+     * the publishing thread starts with the first meter registered, and the client is
+     * built on the first publish, on the publishing thread, so that building the registry
+     * never waits on resolving the Agent's address. Meters can be registered and recorded
+     * to before then, and each direct distribution holds up to 8192 values until the
+     * first publish sends them. The client is never built lazily when the registry is
+     * given a client or a {@link DatadogTransport}.
+     */
+    default boolean lazyStart() {
+        return getBoolean(this, "lazyStart").orElse(false);
+    }
+
+    /**
+     * @return {@code false} if publishing should be scheduled by Micrometer, which
+     * publishes at a random offset into each step. When {@code true}, the registry
+     * publishes at an offset taken from a hash of the host name and process id instead,
+     * which spreads a fleet evenly across the step and stays the same when the fleet
+     * restarts at once.
+     */
+    default boolean alignedPublishing() {
+        return getBoolean(this, "alignedPublishing").orElse(false);
+    }
+
+    /**
+     * @return {@code 0.8} the largest offset into the step that
+     * {@link #alignedPublishing()} publishes at, as a fraction of the step. The rest of
+     * the step is left for publishing to finish before the next one begins.
+     */
+    default double publishJitter() {
+        return getDouble(this, "publishJitter").orElse(0.8);
+    }
+
+    /**
+     * @return {@link Duration#ZERO} the window that the sends of one publish are spread
+     * over, rather than written as fast as possible, so that a burst of packets doesn't
+     * overrun the Agent. It must end before the next step, so be at most the part of the
+     * step past the latest publish offset: {@code 1 - }{@link #publishJitter()} of the
+     * step with {@link #alignedPublishing()}, and a fifth of it otherwise. The publish when
+     * the registry closes is never spread.
+     */
+    default Duration publishSpread() {
+        return getDuration(this, "publishSpread").orElse(Duration.ZERO);
+    }
+
+    /**
+     * @return {@link Duration#ZERO} how long a publish waits for the callbacks of gauges,
+     * function counters and function timers, or {@link Duration#ZERO} to call them inline
+     * as each meter is written. Otherwise they are all called concurrently on
+     * {@link #callbackThreads()} ahead of the publish, and a meter whose callback runs
+     * past this timeout, or throws, is published with its last good value if it is a
+     * gauge, and skipped otherwise.
+     */
+    default Duration callbackTimeout() {
+        return getDuration(this, "callbackTimeout").orElse(Duration.ZERO);
+    }
+
+    /**
+     * @return {@code 4} the number of threads that call meter callbacks when
+     * {@link #callbackTimeout()} is set.
+     */
+    default Integer callbackThreads() {
+        return getInteger(this, "callbackThreads").orElse(4);
+    }
+
     @Override
     default Validated<?> validate() {
-        return checkAll(this, c -> StepRegistryConfig.validate(c));
+        return checkAll(this, c -> StepRegistryConfig.validate(c),
+                check("apiKey", DatadogConfig::apiKey)
+                        .andThen(v -> v.invalidateWhen(k -> k == null && publishMode() == DatadogPublishMode.HTTP,
+                                "is required to publish over HTTP", InvalidReason.MISSING)),
+                check("directDistributions", DatadogConfig::directDistributions)
+                        .andThen(v -> v.invalidateWhen(d -> d && publishMode() == DatadogPublishMode.HTTP,
+                                "needs a DogStatsD server", InvalidReason.MALFORMED)),
+                check("spillFile", DatadogConfig::spillFile)
+                        .andThen(v -> v.invalidateWhen(f -> f != null && !builtInSender(), "needs builtInSender",
+                                InvalidReason.MALFORMED)),
+                check("spillMaxBytes", DatadogConfig::spillMaxBytes)
+                        .andThen(v -> v.invalidateWhen(b -> b < 65536, "must be at least 65536", InvalidReason.MALFORMED)),
+                check("spillReplayBytes", DatadogConfig::spillReplayBytes)
+                        .andThen(v -> v.invalidateWhen(b -> b < 1, "must be at least 1", InvalidReason.MALFORMED)),
+                check("httpPayloadBytes", DatadogConfig::httpPayloadBytes)
+                        .andThen(v -> v.invalidateWhen(b -> b < 1024 || b > 5_000_000,
+                                "must be between 1024 and 5000000", InvalidReason.MALFORMED)),
+                check("httpConcurrency", DatadogConfig::httpConcurrency)
+                        .andThen(v -> v.invalidateWhen(c -> c < 1, "must be at least 1", InvalidReason.MALFORMED)),
+                check("httpMaxRetries", DatadogConfig::httpMaxRetries)
+                        .andThen(v -> v.invalidateWhen(r -> r < 0, "must not be negative", InvalidReason.MALFORMED)),
+                check("statsdAddress", DatadogConfig::statsdAddress)
+                        .andThen(v -> v.invalidateWhen(a -> a != null && StatsdAddress.parse(a) == null,
+                                "must be unix://<path>, udp://<host>:<port> or <host>:<port>", InvalidReason.MALFORMED)),
+                checkNoLimit("maxTagSetsPerName", DatadogConfig::maxTagSetsPerName),
+                checkNoLimit("maxMeters", DatadogConfig::maxMeters),
+                checkNoLimit("distributionSampleBudget", DatadogConfig::distributionSampleBudget),
+                checkClientDefault("senderWorkers", DatadogConfig::senderWorkers),
+                checkClientDefault("processorWorkers", DatadogConfig::processorWorkers),
+                checkClientDefault("queueSize", DatadogConfig::queueSize),
+                checkClientDefault("socketBufferSize", DatadogConfig::socketBufferSize),
+                checkClientDefault("bufferPoolSize", DatadogConfig::bufferPoolSize),
+                check("publishParallelism", DatadogConfig::publishParallelism)
+                        .andThen(v -> v.invalidateWhen(p -> p < 1, "must be at least 1", InvalidReason.MALFORMED)),
+                check("idleMeterKeepalive", DatadogConfig::idleMeterKeepalive)
+                        .andThen(v -> v.invalidateWhen(Duration::isNegative, "must not be negative", InvalidReason.MALFORMED)),
+                check("publishJitter", DatadogConfig::publishJitter)
+                        .andThen(v -> v.invalidateWhen(j -> j < 0 || j >= 1, "must be at least 0 and less than 1",
+                                InvalidReason.MALFORMED)),
+                check("publishSpread", DatadogConfig::publishSpread)
+                        .andThen(v -> v.invalidateWhen(s -> s.isNegative() || s.toMillis() > maxSpreadMillis(this),
+                                "must not be negative and must end before the next step, even for a publish at "
+                                        + "the latest offset into the step", InvalidReason.MALFORMED)),
+                check("callbackTimeout", DatadogConfig::callbackTimeout)
+                        .andThen(v -> v.invalidateWhen(Duration::isNegative, "must not be negative", InvalidReason.MALFORMED)),
+                check("callbackThreads", DatadogConfig::callbackThreads)
+                        .andThen(v -> v.invalidateWhen(t -> t < 1, "must be at least 1", InvalidReason.MALFORMED)),
+                check("gaugeHeartbeatSteps", DatadogConfig::gaugeHeartbeatSteps)
+                        .andThen(v -> v.invalidateWhen(s -> s < 1, "must be at least 1", InvalidReason.MALFORMED)),
+                check("gaugeChangeThreshold", DatadogConfig::gaugeChangeThreshold)
+                        .andThen(v -> v.invalidateWhen(t -> t < 0, "must not be negative", InvalidReason.MALFORMED)),
+                check("gaugeRelativeChangeThreshold", DatadogConfig::gaugeRelativeChangeThreshold)
+                        .andThen(v -> v.invalidateWhen(t -> t < 0, "must not be negative", InvalidReason.MALFORMED)));
+    }
+
+    /**
+     * Checks a client setting that is either positive or {@code -1} for the client's
+     * default.
+     */
+    private static Function<DatadogConfig, Validated<Integer>> checkClientDefault(String property,
+            Function<DatadogConfig, Integer> getter) {
+        return check(property, getter).andThen(v -> v.invalidateWhen(value -> value != -1 && value < 1,
+                "must be positive, or -1 for the client's default", InvalidReason.MALFORMED));
+    }
+
+    /**
+     * @return The longest a publish can be spread over and still end before the next
+     * step, when it starts at the latest offset into the step that publishes start at.
+     */
+    private static long maxSpreadMillis(DatadogConfig config) {
+        double jitter = config.alignedPublishing() ? config.publishJitter() : PublishSchedule.MICROMETER_JITTER;
+        return Math.round((1 - jitter) * config.step().toMillis());
+    }
+
+    /**
+     * Checks a limit that is either positive or {@code -1} for no limit.
+     */
+    private static Function<DatadogConfig, Validated<Integer>> checkNoLimit(String property,
+            Function<DatadogConfig, Integer> getter) {
+        return check(property, getter).andThen(v -> v.invalidateWhen(value -> value != -1 && value < 1,
+                "must be positive, or -1 for no limit", InvalidReason.MALFORMED));
+    }
+
+    private static Validated<Double> getDouble(DatadogConfig config, String property) {
+        return getString(config, property).flatMap((value, valid) -> {
+            if (value == null) {
+                return Validated.valid(valid.getProperty(), null);
+            }
+            try {
+                return Validated.valid(valid.getProperty(), Double.valueOf(value));
+            }
+            catch (NumberFormatException e) {
+                return Validated.invalid(valid.getProperty(), value, "must be a double", InvalidReason.MALFORMED, e);
+            }
+        });
     }
 }
\ No newline at end of file
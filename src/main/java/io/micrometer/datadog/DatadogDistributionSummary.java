@@ -0,0 +1,65 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.AbstractDistributionSummary;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.NoopHistogram;
+import io.micrometer.core.instrument.distribution.TimeWindowMax;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link io.micrometer.core.instrument.DistributionSummary} that sends every recording to
+ * DogStatsD as a distribution value, so that percentiles are computed by Datadog across
+ * all hosts. Nothing is buffered per step; {@link #count()} and {@link #totalAmount()}
+ * are cumulative.
+ */
+class DatadogDistributionSummary extends AbstractDistributionSummary {
+
+    private final DirectDistribution distribution;
+
+    private final LongAdder count = new LongAdder();
+
+    private final DoubleAdder amount = new DoubleAdder();
+
+    private final TimeWindowMax max;
+
+    DatadogDistributionSummary(Id id, Clock clock, DistributionStatisticConfig distributionStatisticConfig,
+            double scale, DirectDistribution distribution) {
+        super(id, scale, NoopHistogram.INSTANCE);
+        this.distribution = distribution;
+        this.max = new TimeWindowMax(clock, distributionStatisticConfig);
+    }
+
+    @Override
+    protected void recordNonNegative(double amount) {
+        count.increment();
+        this.amount.add(amount);
+        max.record(amount);
+        distribution.record(amount);
+    }
+
+    @Override
+    public long count() {
+        return count.sum();
+    }
+
+    @Override
+    public double totalAmount() {
+        return amount.sum();
+    }
+
+    @Override
+    public double max() {
+        return max.poll();
+    }
+
+    /**
+     * Sends the values still buffered for packing, if any.
+     */
+    void flush() {
+        distribution.flush();
+    }
+
+}
@@ -0,0 +1,69 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.AbstractTimer;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.NoopHistogram;
+import io.micrometer.core.instrument.distribution.TimeWindowMax;
+import io.micrometer.core.instrument.distribution.pause.PauseDetector;
+import io.micrometer.core.instrument.util.TimeUtils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link io.micrometer.core.instrument.Timer} that sends every recording to DogStatsD as
+ * a distribution value, so that percentiles are computed by Datadog across all hosts.
+ * Nothing is buffered per step; {@link #count()} and {@link #totalTime(TimeUnit)} are
+ * cumulative.
+ */
+class DatadogDistributionTimer extends AbstractTimer {
+
+    private final DirectDistribution distribution;
+
+    private final LongAdder count = new LongAdder();
+
+    private final DoubleAdder totalTime = new DoubleAdder();
+
+    private final TimeWindowMax max;
+
+    DatadogDistributionTimer(Id id, Clock clock, DistributionStatisticConfig distributionStatisticConfig,
+            PauseDetector pauseDetector, TimeUnit baseTimeUnit, DirectDistribution distribution) {
+        super(id, clock, pauseDetector, baseTimeUnit, NoopHistogram.INSTANCE);
+        this.distribution = distribution;
+        this.max = new TimeWindowMax(clock, distributionStatisticConfig);
+    }
+
+    @Override
+    protected void recordNonNegative(long amount, TimeUnit unit) {
+        double value = TimeUtils.convert(amount, unit, baseTimeUnit());
+        count.increment();
+        totalTime.add(value);
+        max.record(value);
+        distribution.record(value);
+    }
+
+    @Override
+    public long count() {
+        return count.sum();
+    }
+
+    @Override
+    public double totalTime(TimeUnit unit) {
+        return TimeUtils.convert(totalTime.sum(), baseTimeUnit(), unit);
+    }
+
+    @Override
+    public double max(TimeUnit unit) {
+        return TimeUtils.convert(max.poll(), baseTimeUnit(), unit);
+    }
+
+    /**
+     * Sends the values still buffered for packing, if any.
+     */
+    void flush() {
+        distribution.flush();
+    }
+
+}
@@ -0,0 +1,338 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Measurement;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Statistic;
+import io.micrometer.core.lang.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+import static io.micrometer.core.instrument.util.StringEscapeUtils.escapeJson;
+
+/**
+ * Publishes meters to the Datadog metrics API, {@code POST /api/v2/series}, instead of
+ * through DogStatsD.
+ * <p>
+ * Every measurement becomes one series named and tagged like its DogStatsD counterpart,
+ * including the {@code statistic} tag, and so are the percentiles and SLO bucket counts
+ * of sketched timers and distribution summaries. Counts, totals and bucket counts are
+ * sent as counts over the step interval and everything else as gauges. Series are streamed as JSON through gzip into
+ * payloads of at most {@link DatadogConfig#httpPayloadBytes()} uncompressed bytes, which
+ * are posted over one keep-alive HTTP client, at most
+ * {@link DatadogConfig#httpConcurrency()} at a time. Payloads rejected with a 408, 429 or
+ * 5xx status, or not delivered at all, are retried with exponential backoff.
+ */
+final class DatadogHttpSender {
+
+    private static final Logger logger = LoggerFactory.getLogger(DatadogHttpSender.class);
+
+    private static final int COUNT = 1;
+
+    private static final int GAUGE = 3;
+
+    private static final long INITIAL_BACKOFF_MILLIS = 100;
+
+    private static final long MAX_BACKOFF_MILLIS = 10_000;
+
+    private final HttpClient httpClient;
+
+    private final URI seriesUri;
+
+    private final String apiKey;
+
+    private final String prefix;
+
+    @Nullable
+    private final String hostTag;
+
+    private final long stepSeconds;
+
+    private final int payloadBytes;
+
+    private final int maxRetries;
+
+    private final Duration timeout;
+
+    private final Semaphore inFlight;
+
+    private final Clock clock;
+
+    private final StatsdMetricCache statsdMetrics;
+
+    private final PublishTelemetry telemetry;
+
+    private final Function<Meter, Iterable<Measurement>> measure;
+
+    /**
+     * @param measure Measures a meter, so that callbacks evaluated ahead of the publish
+     * aren't called again.
+     */
+    DatadogHttpSender(DatadogConfig config, Clock clock, StatsdMetricCache statsdMetrics,
+            PublishTelemetry telemetry, Function<Meter, Iterable<Measurement>> measure) {
+        this.timeout = config.httpTimeout();
+        this.httpClient = HttpClient.newBuilder().connectTimeout(timeout).build();
+        String uri = config.uri();
+        this.seriesUri = URI.create((uri.endsWith("/") ? uri.substring(0, uri.length() - 1) : uri) + "/api/v2/series");
+        this.apiKey = config.apiKey();
+        this.prefix = config.prefix().isEmpty() ? "" : config.prefix() + ".";
+        this.hostTag = config.hostTag();
+        this.stepSeconds = Math.max(1, config.step().getSeconds());
+        this.payloadBytes = config.httpPayloadBytes();
+        this.maxRetries = config.httpMaxRetries();
+        this.inFlight = new Semaphore(config.httpConcurrency());
+        this.clock = clock;
+        this.statsdMetrics = statsdMetrics;
+        this.telemetry = telemetry;
+        this.measure = measure;
+    }
+
+    /**
+     * Posts the current measurements of {@code meters}, and waits until every payload has
+     * been delivered or given up on.
+     */
+    void publish(List<Meter> meters) {
+        long timestamp = clock.wallTime() / 1000;
+        List<CompletableFuture<Void>> sends = new ArrayList<>();
+        Payload payload = new Payload();
+        try {
+            for (Meter meter : meters) {
+                String host = hostTag == null ? null : meter.getId().getTag(hostTag);
+                boolean visited = false;
+                for (Measurement measurement : measure.apply(meter)) {
+                    double value = measurement.getValue();
+                    if (!Double.isFinite(value)) {
+                        continue;
+                    }
+                    StatsdMetric metric = statsdMetrics.get(meter.getId(), measurement.getStatistic());
+                    if (!visited) {
+                        telemetry.visited(metric);
+                        visited = true;
+                    }
+                    payload = write(payload, sends, metric, type(measurement.getStatistic()), timestamp, value, host);
+                }
+                if (meter instanceof SketchedMeter) {
+                    payload = writeSketch(payload, sends, ((SketchedMeter) meter).sketch(), timestamp, host);
+                }
+            }
+            if (payload.series > 0) {
+                sends.add(send(payload.finish()));
+            }
+        }
+        catch (IOException e) {
+            // only ever written to memory
+            throw new UncheckedIOException(e);
+        }
+        CompletableFuture.allOf(sends.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    /**
+     * Writes the percentiles and SLO bucket counts of the previous step, from the same
+     * snapshot as its count, sum and max. Nothing is written for a step without values.
+     */
+    private Payload writeSketch(Payload payload, List<CompletableFuture<Void>> sends, StepSketch sketch,
+            long timestamp, @Nullable String host) throws IOException {
+        StepSketch.Snapshot snapshot = sketch.snapshot();
+        if (snapshot.count == 0) {
+            return payload;
+        }
+        for (int i = 0; i < sketch.percentiles.length; i++) {
+            double value = snapshot.valueAtQuantile(sketch.percentiles[i]) / sketch.unitScale;
+            if (Double.isFinite(value)) {
+                payload = write(payload, sends, statsdMetrics.get(sketch.percentileIds[i], null), GAUGE, timestamp,
+                        value, host);
+            }
+        }
+        for (int i = 0; i < sketch.buckets.length; i++) {
+            payload = write(payload, sends, statsdMetrics.get(sketch.bucketIds[i], null), COUNT, timestamp,
+                    snapshot.countAtOrBelow(sketch.buckets[i]), host);
+        }
+        return payload;
+    }
+
+    /**
+     * @return {@code payload}, or the one that follows it once it is full and sent.
+     */
+    private Payload write(Payload payload, List<CompletableFuture<Void>> sends, StatsdMetric metric, int type,
+            long timestamp, double value, @Nullable String host) throws IOException {
+        payload.write(metric, type, timestamp, value, host);
+        telemetry.sent(metric);
+        if (payload.uncompressedBytes < payloadBytes) {
+            return payload;
+        }
+        sends.add(send(payload.finish()));
+        return new Payload();
+    }
+
+    private static int type(Statistic statistic) {
+        switch (statistic) {
+            case COUNT:
+            case TOTAL:
+            case TOTAL_TIME:
+                return COUNT;
+            default:
+                return GAUGE;
+        }
+    }
+
+    private CompletableFuture<Void> send(byte[] body) {
+        try {
+            inFlight.acquire();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.completedFuture(null);
+        }
+        return attempt(body, 0).whenComplete((ignored, error) -> inFlight.release());
+    }
+
+    private CompletableFuture<Void> attempt(byte[] body, int attempt) {
+        HttpRequest request = HttpRequest.newBuilder(seriesUri)
+                .timeout(timeout)
+                .header("Content-Type", "application/json")
+                .header("Content-Encoding", "gzip")
+                .header("DD-API-KEY", apiKey)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .handle((response, error) -> {
+                    int status = response == null ? 0 : response.statusCode();
+                    if (error == null && status >= 200 && status < 300) {
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    boolean retryable = error != null || status == 408 || status == 429 || status >= 500;
+                    if (retryable && attempt < maxRetries) {
+                        return CompletableFuture.runAsync(() -> {
+                        }, CompletableFuture.delayedExecutor(backoffMillis(attempt), TimeUnit.MILLISECONDS))
+                                .thenCompose(ignored -> attempt(body, attempt + 1));
+                    }
+
+                    telemetry.transportError();
+                    if (error != null) {
+                        logger.warn("failed to send metrics to Datadog", error);
+                    }
+                    else {
+                        logger.warn("failed to send metrics to Datadog: {} {}", status, response.body());
+                    }
+                    return CompletableFuture.<Void>completedFuture(null);
+                })
+                .thenCompose(Function.identity());
+    }
+
+    /**
+     * Exponential backoff with jitter, so that retries of many hosts don't line up.
+     */
+    private static long backoffMillis(int attempt) {
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(attempt, 16));
+        return ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1);
+    }
+
+    /**
+     * @return How many bytes {@code s} encodes to in UTF-8.
+     */
+    static int utf8Length(String s) {
+        int bytes = s.length();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x800) {
+                // a surrogate pair is 4 bytes, 2 per char
+                bytes += Character.isSurrogate(c) ? 1 : 2;
+            }
+            else if (c >= 0x80) {
+                bytes++;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * A series payload being compressed as it is written.
+     */
+    private final class Payload {
+
+        private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+        private final Writer writer;
+
+        int uncompressedBytes;
+
+        int series;
+
+        Payload() {
+            try {
+                this.writer = new OutputStreamWriter(new GZIPOutputStream(compressed, 8192), StandardCharsets.UTF_8);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void write(StatsdMetric metric, int type, long timestamp, double value, @Nullable String host)
+                throws IOException {
+            append(series++ == 0 ? "{\"series\":[" : ",");
+            append("{\"metric\":\"");
+            // the naming convention has escaped the name already
+            append(escapeJson(prefix));
+            append(metric.name);
+            append("\",\"type\":");
+            append(Integer.toString(type));
+            if (type == COUNT) {
+                append(",\"interval\":");
+                append(Long.toString(stepSeconds));
+            }
+            append(",\"points\":[{\"timestamp\":");
+            append(Long.toString(timestamp));
+            append(",\"value\":");
+            append(Double.toString(value));
+            append("}],\"tags\":[");
+            // already quoted and escaped
+            for (int i = 0; i < metric.tags.length; i++) {
+                if (i > 0) {
+                    append(",");
+                }
+                append(metric.tags[i]);
+            }
+            append("]");
+            if (host != null) {
+                append(",\"resources\":[{\"type\":\"host\",\"name\":\"");
+                append(escapeJson(host));
+                append("\"}]");
+            }
+            append("}");
+        }
+
+        byte[] finish() throws IOException {
+            append("]}");
+            writer.close();
+            return compressed.toByteArray();
+        }
+
+        private void append(String s) throws IOException {
+            writer.write(s);
+            uncompressedBytes += utf8Length(s);
+        }
+
+    }
+
+}
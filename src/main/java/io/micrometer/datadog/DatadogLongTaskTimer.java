@@ -0,0 +1,201 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.AbstractMeter;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.LongTaskTimer;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.util.TimeUtils;
+
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A long task timer that keeps no record of individual tasks, so that it scales to many
+ * thousands of them. Active tasks are counted in buckets of {@link #BUCKET_NANOS} by
+ * start time, on striped counters, which makes {@link #start()} and
+ * {@link Sample#stop()} lock-free and has {@link #activeTasks()}, {@link #duration} and
+ * {@link #max} walk the buckets of active tasks rather than the tasks themselves.
+ * <p>
+ * Durations are exact, as each bucket also sums its tasks' offsets into it, but
+ * {@link #max} is that of the oldest bucket with an active task, so it may be up to one
+ * bucket over. It has no histogram, so {@link DatadogMeterRegistry} only uses it for
+ * timers that publish neither histograms nor percentiles.
+ */
+final class DatadogLongTaskTimer extends AbstractMeter implements LongTaskTimer {
+
+    static final long BUCKET_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Clock clock;
+
+    private final TimeUnit baseTimeUnit;
+
+    private final long origin;
+
+    private final ConcurrentNavigableMap<Long, Bucket> buckets = new ConcurrentSkipListMap<>();
+
+    private volatile Bucket current;
+
+    DatadogLongTaskTimer(Meter.Id id, Clock clock, TimeUnit baseTimeUnit) {
+        super(id);
+        this.clock = clock;
+        this.baseTimeUnit = baseTimeUnit;
+        this.origin = clock.monotonicTime();
+        this.current = new Bucket(0, origin);
+        buckets.put(0L, current);
+    }
+
+    @Override
+    public Sample start() {
+        long start = clock.monotonicTime();
+        long index = (start - origin) / BUCKET_NANOS;
+        Bucket bucket = current;
+        if (bucket.index != index) {
+            bucket = bucket(index);
+        }
+        while (true) {
+            bucket.active.increment();
+            if (!bucket.retired) {
+                bucket.offsets.add(start - bucket.start);
+                return new SampleImpl(clock, bucket, start);
+            }
+            // lost a race with retire(), which removes the bucket or keeps it
+            bucket.active.decrement();
+            Thread.onSpinWait();
+            bucket = bucket(index);
+        }
+    }
+
+    private Bucket bucket(long index) {
+        Bucket bucket = buckets.computeIfAbsent(index, i -> new Bucket(i, origin + i * BUCKET_NANOS));
+        if (bucket.index > current.index) {
+            current = bucket;
+        }
+        return bucket;
+    }
+
+    @Override
+    public double duration(TimeUnit unit) {
+        long now = clock.monotonicTime();
+        double nanos = 0;
+        for (Bucket bucket : retire()) {
+            nanos += (double) bucket.active.sum() * (now - bucket.start) - bucket.offsets.sum();
+        }
+        return TimeUtils.nanosToUnit(nanos, unit);
+    }
+
+    @Override
+    public int activeTasks() {
+        long active = 0;
+        for (Bucket bucket : retire()) {
+            active += bucket.active.sum();
+        }
+        return (int) active;
+    }
+
+    @Override
+    public double max(TimeUnit unit) {
+        for (Bucket bucket : retire()) {
+            if (bucket.active.sum() > 0) {
+                return TimeUtils.nanosToUnit(clock.monotonicTime() - bucket.start, unit);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public TimeUnit baseTimeUnit() {
+        return baseTimeUnit;
+    }
+
+    @Override
+    public HistogramSnapshot takeSnapshot() {
+        return HistogramSnapshot.empty(activeTasks(), duration(baseTimeUnit), max(baseTimeUnit));
+    }
+
+    /**
+     * Removes past buckets that have no active task left.
+     * @return The remaining buckets, oldest first.
+     */
+    private synchronized Iterable<Bucket> retire() {
+        long currentIndex = current.index;
+        for (Bucket bucket : buckets.headMap(currentIndex).values()) {
+            if (bucket.active.sum() != 0) {
+                continue;
+            }
+            // a start() that computed this bucket's index before it became past backs off
+            // once it sees the flag, or else has been counted by the time it is checked again
+            bucket.retired = true;
+            if (bucket.active.sum() == 0) {
+                buckets.remove(bucket.index, bucket);
+            }
+            else {
+                bucket.retired = false;
+            }
+        }
+        return buckets.values();
+    }
+
+    private static final class Bucket {
+
+        final long index;
+
+        final long start;
+
+        final LongAdder active = new LongAdder();
+
+        /**
+         * Sum of the active tasks' start times relative to {@link #start}, each less than
+         * {@link #BUCKET_NANOS}, so that it can't overflow.
+         */
+        final LongAdder offsets = new LongAdder();
+
+        volatile boolean retired;
+
+        Bucket(long index, long start) {
+            this.index = index;
+            this.start = start;
+        }
+
+    }
+
+    private static final class SampleImpl extends Sample {
+
+        private static final AtomicIntegerFieldUpdater<SampleImpl> STOPPED = AtomicIntegerFieldUpdater
+            .newUpdater(SampleImpl.class, "stopped");
+
+        private final Clock clock;
+
+        private final Bucket bucket;
+
+        private final long start;
+
+        private volatile int stopped;
+
+        SampleImpl(Clock clock, Bucket bucket, long start) {
+            this.clock = clock;
+            this.bucket = bucket;
+            this.start = start;
+        }
+
+        @Override
+        public long stop() {
+            long duration = clock.monotonicTime() - start;
+            if (STOPPED.compareAndSet(this, 0, 1)) {
+                bucket.offsets.add(bucket.start - start);
+                bucket.active.decrement();
+            }
+            return duration;
+        }
+
+        @Override
+        public double duration(TimeUnit unit) {
+            return stopped == 1 ? -1 : TimeUtils.nanosToUnit(clock.monotonicTime() - start, unit);
+        }
+
+    }
+
+}
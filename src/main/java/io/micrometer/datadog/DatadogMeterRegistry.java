@@ -1,9 +1,10 @@
 package io.micrometer.datadog;
 
-import com.timgroup.statsd.NonBlockingStatsDClientBuilder;
+import com.timgroup.statsd.NoOpStatsDClient;
 import com.timgroup.statsd.StatsDClient;
 
 import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.config.MeterFilter;
 import io.micrometer.core.instrument.step.StepCounter;
 import io.micrometer.core.instrument.step.StepDistributionSummary;
 import io.micrometer.core.instrument.step.StepFunctionCounter;
@@ -16,20 +17,39 @@ import io.micrometer.core.instrument.internal.DefaultGauge;
 import io.micrometer.core.instrument.internal.DefaultMeter;
 import io.micrometer.core.instrument.push.PushMeterRegistry;
 import io.micrometer.core.instrument.util.NamedThreadFactory;
+import io.micrometer.core.instrument.util.TimeUtils;
 import io.micrometer.core.lang.NonNull;
 import io.micrometer.core.lang.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.function.ToDoubleFunction;
 import java.util.function.ToLongFunction;
 
 import static io.micrometer.core.instrument.util.StringEscapeUtils.escapeJson;
-import static java.util.stream.StreamSupport.stream;
 
 /**
  * {@link MeterRegistry} for Datadog.
@@ -37,12 +57,108 @@ import static java.util.stream.StreamSupport.stream;
 public class DatadogMeterRegistry extends PushMeterRegistry {
     private static final ThreadFactory DEFAULT_THREAD_FACTORY = new NamedThreadFactory("datadog-metrics-publisher");
 
+    private static final ThreadFactory SHARD_THREAD_FACTORY = new NamedThreadFactory("datadog-metrics-publisher-shard");
+
+    /**
+     * Registries smaller than this are not worth handing off to other threads.
+     */
+    private static final int MIN_SHARD_SIZE = 256;
+
     private final Logger logger = LoggerFactory.getLogger(DatadogMeterRegistry.class);
 
     private final DatadogConfig config;
 
-    private final StatsDClient statsDClient;
+    private final LazyStatsDClient statsDClient;
+
+    /**
+     * Only set when the client is shared with other registries.
+     */
+    @Nullable
+    private final DatadogTransport transport;
+
+    /**
+     * The prefix metric names are resolved with, empty unless the client is shared.
+     */
+    private final String namePrefix;
+
+    private final StatsdMetricCache statsdMetrics;
+
+    private final PublishTelemetry telemetry = new PublishTelemetry();
+
+    private final AtomicInteger meterCount = new AtomicInteger();
+
+    private final AtomicReference<ThreadFactory> pendingStart = new AtomicReference<>();
+
+    /**
+     * Only set when distribution values are packed into multi-value messages.
+     */
+    @Nullable
+    private final DistributionPacker distributionPacker;
+
+    /**
+     * Only set when publishing bypasses the client.
+     */
+    @Nullable
+    private final StatsdWireSender wireSender;
+
+    /**
+     * Only set when publishing to the HTTP API.
+     */
+    @Nullable
+    private final DatadogHttpSender httpSender;
+
+    /**
+     * Only set when meters are limited by tag cardinality.
+     */
+    @Nullable
+    private final CardinalityLimiter cardinalityLimiter;
+
+    @Nullable
+    private final LimitedConfig limitedConfig;
+
+    /**
+     * Only set when meter callbacks are evaluated ahead of publishing.
+     */
+    @Nullable
+    private final CallbackEvaluator callbacks;
+
+    @Nullable
+    private final ExecutorService shardExecutor;
 
+    /**
+     * Only set when idle meters are skipped.
+     */
+    @Nullable
+    private final DirtyMeterIndex dirtyMeters;
+
+    /**
+     * Only set when unchanged gauges are suppressed.
+     */
+    @Nullable
+    private final GaugeChangeFilter gaugeChangeFilter;
+
+    private final PublishTiers publishTiers;
+
+    private final Predicate<Meter.Id> unsampledDistributions;
+
+    private volatile boolean closing;
+
+    /**
+     * Only set when publishing is aligned, which the registry schedules itself.
+     */
+    @Nullable
+    private volatile ScheduledExecutorService scheduler;
+
+    /**
+     * Held weakly, so that templates made and dropped don't pile up.
+     */
+    private final Set<MeterTemplate<?>> templates = Collections
+        .synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    /**
+     * Meters that are not dirty-tracked and therefore visited on every publish.
+     */
+    private final Set<Meter> untrackedMeters = ConcurrentHashMap.newKeySet();
 
     /**
      * @param config Configuration options for the registry that are describable as
@@ -51,7 +167,7 @@ public class DatadogMeterRegistry extends PushMeterRegistry {
      */
     @SuppressWarnings("deprecation")
     public DatadogMeterRegistry(DatadogConfig config, Clock clock) {
-        this(config, clock, DEFAULT_THREAD_FACTORY, null);
+        this(config, clock, DEFAULT_THREAD_FACTORY, null, null, PublishTiers.none(), id -> false);
     }
 
     /**
@@ -61,41 +177,80 @@ public class DatadogMeterRegistry extends PushMeterRegistry {
      */
     @SuppressWarnings("deprecation")
     public DatadogMeterRegistry(DatadogConfig config, Clock clock, @Nullable StatsDClient customClient) {
-        this(config, clock, DEFAULT_THREAD_FACTORY, customClient);
+        this(config, clock, DEFAULT_THREAD_FACTORY, customClient, null, PublishTiers.none(), id -> false);
     }
 
     @SuppressWarnings({ "Var", "Varifier" })
-    private DatadogMeterRegistry(DatadogConfig config, Clock clock, ThreadFactory threadFactory, @Nullable StatsDClient statsDClient) {
+    private DatadogMeterRegistry(DatadogConfig config, Clock clock, ThreadFactory threadFactory, @Nullable StatsDClient statsDClient,
+            @Nullable DatadogTransport transport, PublishTiers publishTiers, Predicate<Meter.Id> unsampledDistributions) {
         super(config, clock);
+        this.publishTiers = publishTiers.start(clock.wallTime());
+        this.unsampledDistributions = unsampledDistributions;
 
         config().namingConvention(new DatadogNamingConvention());
 
-        if (statsDClient == null) {
-
-            NonBlockingStatsDClientBuilder builder = new NonBlockingStatsDClientBuilder();
-            builder = builder.prefix(config.prefix());
+        // names carry the prefix themselves when the client is shared
+        this.transport = config.publishMode() == DatadogPublishMode.HTTP ? null : transport;
+        this.namePrefix = this.transport == null || config.prefix().isEmpty() ? "" : config.prefix() + ".";
 
-            // performance tune-ables
-            builder = builder.enableTelemetry(config.enableClientSideTelemetry())
-                    .enableAggregation(config.enableAggregation());
-            if (config.enableAggregation()) {
-                builder = builder.aggregationFlushInterval(config.aggregationFlushInterval())
-                        .aggregationShards(config.aggregationShards());
-            }
+        if (statsDClient == null && config.publishMode() == DatadogPublishMode.HTTP) {
+            statsDClient = new NoOpStatsDClient();
+        }
+        else if (this.transport != null) {
+            statsDClient = this.transport.attach(telemetry);
+        }
+        if (statsDClient != null) {
+            this.statsDClient = LazyStatsDClient.of(statsDClient);
+        }
+        else if (config.lazyStart()) {
+            this.statsDClient = LazyStatsDClient
+                .lazy(() -> DatadogTransport.newClient(config, config.prefix(), e -> telemetry.transportError()));
+        }
+        else {
+            this.statsDClient = LazyStatsDClient
+                .of(DatadogTransport.newClient(config, config.prefix(), e -> telemetry.transportError()));
+        }
 
-            if (config.maxPacketSizeBytes() != -1) {
-                builder = builder.maxPacketSizeBytes(config.maxPacketSizeBytes());
-            }
+        this.config = config;
+        this.statsdMetrics = new StatsdMetricCache(this::resolveStatsdMetric, () -> config().namingConvention());
+        // the publisher thread always writes one shard itself
+        this.shardExecutor = config.publishParallelism() > 1
+                ? Executors.newFixedThreadPool(config.publishParallelism() - 1, SHARD_THREAD_FACTORY) : null;
+        this.callbacks = config.callbackTimeout().isZero() ? null
+                : new CallbackEvaluator(config.callbackThreads(), config.callbackTimeout(), telemetry);
+        this.dirtyMeters = config.skipIdleMeters() ? new DirtyMeterIndex(clock, config.step().toMillis(),
+                config.idleMeterKeepalive().toMillis() / config.step().toMillis()) : null;
+        this.gaugeChangeFilter = config.gaugeHeartbeatSteps() > 1 ? new GaugeChangeFilter(config.gaugeHeartbeatSteps(),
+                config.gaugeChangeThreshold(), config.gaugeRelativeChangeThreshold()) : null;
+        this.wireSender = config.builtInSender() ? openWireSender(config) : null;
+        this.httpSender = config.publishMode() == DatadogPublishMode.HTTP
+                ? new DatadogHttpSender(config, clock, statsdMetrics, telemetry, this::measure) : null;
+        this.distributionPacker = config.packDistributions()
+                ? new DistributionPacker(this.statsDClient, config.maxPacketSizeBytes(), telemetry) : null;
+
+        if (config.maxTagSetsPerName() != -1 || config.maxMeters() != -1) {
+            this.cardinalityLimiter = new CardinalityLimiter(config.maxTagSetsPerName(), config.maxMeters(), telemetry);
+            config().meterFilter(cardinalityLimiter);
+            this.limitedConfig = new LimitedConfig();
+        }
+        else {
+            this.cardinalityLimiter = null;
+            this.limitedConfig = null;
+        }
 
-            // where to report data comes from "DD_DOGSTATSD_URL" environment variable
+        config().onMeterAdded(this::onMeterAdded).onMeterRemoved(this::onMeterRemoved);
 
-            statsDClient = builder.build();
+        if (config.registryTelemetry()) {
+            telemetry.bindTo(this);
         }
 
-        this.config = config;
-        this.statsDClient = statsDClient;
-
-        start(threadFactory);
+        if (config.lazyStart()) {
+            // the publisher thread starts with the first meter of the application's own
+            pendingStart.set(threadFactory);
+        }
+        else {
+            start(threadFactory);
+        }
     }
 
     public static Builder builder(DatadogConfig config) {
@@ -112,6 +267,12 @@ public class DatadogMeterRegistry extends PushMeterRegistry {
 
         private StatsDClient statsDClient;
 
+        private DatadogTransport transport;
+
+        private PublishTiers publishTiers = PublishTiers.none();
+
+        private Predicate<Meter.Id> unsampledDistributions = id -> false;
+
         @SuppressWarnings("deprecation")
         Builder(DatadogConfig config) {
             this.config = config;
@@ -132,141 +293,591 @@ public class DatadogMeterRegistry extends PushMeterRegistry {
             return this;
         }
 
+        /**
+         * Publishes through a Dogstatsd client shared with other registries, rather than
+         * one of this registry's own. The registry holds a reference to the transport until
+         * it is closed. Ignored when publishing over HTTP.
+         */
+        public Builder transport(DatadogTransport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Publishes meters whose name starts with {@code namePrefix} every {@code step}.
+         * @see #publishTier(Predicate, Duration)
+         */
+        public Builder publishTier(String namePrefix, Duration step) {
+            return publishTier(id -> id.getName().startsWith(namePrefix), step);
+        }
+
+        /**
+         * Publishes meters matching {@code rule} every {@code step}, which must be a
+         * multiple of {@link DatadogConfig#step()}. Their step meters accumulate over
+         * {@code step} too. Rules are tried in the order they are added, and meters no rule
+         * matches are published every {@link DatadogConfig#step()}.
+         */
+        public Builder publishTier(Predicate<Meter.Id> rule, Duration step) {
+            this.publishTiers = publishTiers.with(rule, step, config.step());
+            return this;
+        }
+
+        /**
+         * Exempts the direct distributions matching {@code rule} from
+         * {@link DatadogConfig#distributionSampleBudget() sampling}, so that they send
+         * every recorded value however often they are recorded.
+         */
+        public Builder unsampledDistributions(Predicate<Meter.Id> rule) {
+            this.unsampledDistributions = rule;
+            return this;
+        }
+
         public DatadogMeterRegistry build() {
-            return new DatadogMeterRegistry(config, clock, threadFactory, statsDClient);
+            if (statsDClient != null && transport != null) {
+                throw new IllegalStateException("a registry can have a StatsDClient or a DatadogTransport, not both");
+            }
+            return new DatadogMeterRegistry(config, clock, threadFactory, statsDClient, transport, publishTiers,
+                    unsampledDistributions);
         }
 
     }
 
+    /**
+     * With cardinality limits, filters configured here run ahead of the limiter, so that
+     * the limit applies to ids as they are finally registered.
+     */
+    @Override
+    public Config config() {
+        return limitedConfig == null ? super.config() : limitedConfig;
+    }
+
     @Override
     public void start(ThreadFactory threadFactory) {
+        pendingStart.set(null);
         logger.info("publishing metrics for Datadog");
-        super.start(threadFactory);
+        if (!config.alignedPublishing()) {
+            super.start(threadFactory);
+            return;
+        }
+
+        stop();
+        if (config.enabled()) {
+            long stepMillis = config.step().toMillis();
+            long offsetMillis = PublishSchedule.offsetMillis(stepMillis, config.publishJitter());
+            logger.info("publishing metrics for Datadog every {}, {} ms into the step", TimeUtils.format(config.step()),
+                    offsetMillis);
+            scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+            scheduler.scheduleAtFixedRate(this::publishScheduled,
+                    PublishSchedule.initialDelayMillis(clock.wallTime(), stepMillis, offsetMillis), stepMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void stop() {
+        ScheduledExecutorService scheduler = this.scheduler;
+        if (scheduler != null) {
+            this.scheduler = null;
+            scheduler.shutdown();
+            try {
+                // so that the publish on close doesn't overlap a scheduled one
+                scheduler.awaitTermination(config.step().toMillis(), TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        super.stop();
+    }
+
+    private void publishScheduled() {
+        try {
+            publish();
+        }
+        catch (Throwable e) {
+            logger.warn("Unexpected exception thrown while publishing metrics for " + getClass().getSimpleName(), e);
+        }
+    }
+
+    /**
+     * @return What the registry has done publishing so far. {@code registry::publishStats}
+     * can be handed out as a {@code Supplier}.
+     */
+    public DatadogPublishStats publishStats() {
+        return telemetry.snapshot();
+    }
+
+    /**
+     * Declares a meter with fixed tag keys, whose meters can then be looked up by their
+     * tag values without allocating. {@code register} is called with the tags of every
+     * new set of values, and should register the meter with this registry.
+     * @param tagKeys The keys of the tags whose values are passed to
+     * {@link MeterTemplate#get}.
+     */
+    public <M extends Meter> MeterTemplate<M> template(List<String> tagKeys, Function<Tags, M> register) {
+        MeterTemplate<M> template = new MeterTemplate<>(tagKeys.toArray(new String[0]), register);
+        templates.add(template);
+        return template;
+    }
+
+    public MeterTemplate<Timer> timerTemplate(String name, String... tagKeys) {
+        return template(Arrays.asList(tagKeys), tags -> timer(name, tags));
+    }
+
+    public MeterTemplate<Counter> counterTemplate(String name, String... tagKeys) {
+        return template(Arrays.asList(tagKeys), tags -> counter(name, tags));
+    }
+
+    public MeterTemplate<DistributionSummary> summaryTemplate(String name, String... tagKeys) {
+        return template(Arrays.asList(tagKeys), tags -> summary(name, tags));
+    }
+
+    private void onMeterAdded(Meter meter) {
+        meterCount.incrementAndGet();
+        statsdMetrics.fill(meter);
+        if (pendingStart.get() != null && !PublishTelemetry.isInternal(meter.getId())) {
+            ThreadFactory threadFactory = pendingStart.getAndSet(null);
+            if (threadFactory != null) {
+                start(threadFactory);
+            }
+        }
+        if (publishTiers.added(meter)) {
+            return;
+        }
+        if (!(meter instanceof DirtyTrackedMeter)) {
+            untrackedMeters.add(meter);
+        }
+    }
+
+    private void onMeterRemoved(Meter meter) {
+        meterCount.decrementAndGet();
+        if (cardinalityLimiter != null) {
+            cardinalityLimiter.removed(meter.getId());
+        }
+        statsdMetrics.remove(meter.getId());
+        if (meter instanceof SketchedMeter) {
+            StepSketch sketch = ((SketchedMeter) meter).sketch();
+            for (Meter.Id id : sketch.percentileIds) {
+                statsdMetrics.remove(id);
+            }
+            for (Meter.Id id : sketch.bucketIds) {
+                statsdMetrics.remove(id);
+            }
+        }
+        synchronized (templates) {
+            for (MeterTemplate<?> template : templates) {
+                template.removed(meter);
+            }
+        }
+        if (callbacks != null) {
+            callbacks.removed(meter);
+        }
+        if (publishTiers.removed(meter)) {
+            return;
+        }
+        if (meter instanceof DirtyTrackedMeter) {
+            ((DirtyTrackedMeter) meter).dirtyEntry().removed();
+        }
+        else {
+            untrackedMeters.remove(meter);
+        }
+    }
+
+    private StatsdWireSender openWireSender(DatadogConfig config) {
+        try {
+            return new StatsdWireSender(config, clock, telemetry, namePrefix.isEmpty() ? config.prefix() : "");
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("could not open a socket to Dogstatsd", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        // the final publish includes every tier, and still runs on the shard pool
+        closing = true;
+        super.close();
+        if (shardExecutor != null) {
+            shardExecutor.shutdown();
+        }
+        if (callbacks != null) {
+            callbacks.close();
+        }
+        if (transport != null) {
+            transport.detach(telemetry);
+        }
+        if (wireSender != null) {
+            wireSender.close();
+        }
     }
 
     @Override
     protected void publish() {
-        for (Meter meter : getMeters()) {
-            meter.match(this::writeMeterViaStatsd, // visitGauge
-                    this::writeMeterViaStatsd, // visitCounter
-                    this::writeTimerViaStatsd, // visitTimer
-                    this::writeSummaryViaStatsd, // visitSummary
-                    this::writeMeterViaStatsd, // visitLongTaskTimer
-                    this::writeMeterViaStatsd, // visitTimeGauge
-                    this::writeMeterViaStatsd, // visitFunctionCounter
-                    this::writeTimerViaStatsd, // visitFunctionTimer
-                    this::writeMeterViaStatsd // visitMeter
-            );
+        long start = clock.monotonicTime();
+        // builds a lazily started client here, before direct distributions are flushed to it
+        statsDClient.get();
+        List<Meter> meters = metersToPublish();
+        if (dirtyMeters != null) {
+            telemetry.skipped(Math.max(0, meterCount.get() - meters.size()));
+        }
+        if (callbacks != null) {
+            callbacks.evaluate(meters);
+        }
+        if (httpSender != null) {
+            httpSender.publish(meters);
+        }
+        else {
+            publishShards(meters);
+            if (wireSender != null) {
+                wireSender.replaySpill();
+            }
+        }
+        telemetry.published(clock.monotonicTime() - start);
+    }
+
+    private void publishShards(List<Meter> meters) {
+        int shards = shardExecutor == null ? 1
+                : Math.min(config.publishParallelism(), (meters.size() + MIN_SHARD_SIZE - 1) / MIN_SHARD_SIZE);
+        if (shards <= 1) {
+            publish(meters);
+            return;
+        }
+
+        int shardSize = (meters.size() + shards - 1) / shards;
+        List<Future<?>> futures = new ArrayList<>(shards - 1);
+        for (int from = shardSize; from < meters.size(); from += shardSize) {
+            List<Meter> shard = meters.subList(from, Math.min(from + shardSize, meters.size()));
+            try {
+                futures.add(shardExecutor.submit(() -> publish(shard)));
+            }
+            catch (RejectedExecutionException e) {
+                // closing, finish on this thread
+                publish(shard);
+            }
+        }
+        publish(meters.subList(0, shardSize));
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            }
+            catch (ExecutionException e) {
+                logger.warn("failed to publish a shard of metrics to Datadog", e.getCause());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private List<Meter> metersToPublish() {
+        List<Meter> meters;
+        if (dirtyMeters == null) {
+            meters = getMeters();
+            if (!publishTiers.isEmpty()) {
+                meters = new ArrayList<>(meters);
+                meters.removeIf(publishTiers::contains);
+            }
+        }
+        else {
+            meters = dirtyMeters.drain();
+            meters.addAll(untrackedMeters);
+        }
+        if (!publishTiers.isEmpty()) {
+            publishTiers.addDue(meters, clock.wallTime(), closing);
+        }
+        return meters;
+    }
+
+    private void publish(List<Meter> meters) {
+        // the publish on close isn't held up
+        long spreadNanos = closing ? 0 : config.publishSpread().toNanos();
+        long start = System.nanoTime();
+        int written = 0;
+        for (Meter meter : meters) {
+            if (spreadNanos > 0) {
+                pace(start + spreadNanos * written++ / meters.size());
+            }
+            writeViaStatsd(meter);
+        }
+        if (wireSender != null) {
+            wireSender.flush();
         }
     }
 
-    private Integer writeTimerViaStatsd(FunctionTimer timer) {
-        Meter.Id id = timer.getId();
+    /**
+     * Waits until {@code nanoTime} if that is more than a millisecond away.
+     */
+    private static void pace(long nanoTime) {
+        long ahead = nanoTime - System.nanoTime();
+        if (ahead > TimeUnit.MILLISECONDS.toNanos(1)) {
+            LockSupport.parkNanos(ahead);
+        }
+    }
+
+    /**
+     * Dispatches like {@link Meter#match}, without the nine method references that
+     * calling it would allocate for every meter of every publish.
+     */
+    private void writeViaStatsd(Meter meter) {
+        if (meter instanceof Counter) {
+            writeCounterViaStatsd((Counter) meter);
+        }
+        else if (meter instanceof Timer) {
+            writeTimerViaStatsd((Timer) meter);
+        }
+        else if (meter instanceof DistributionSummary) {
+            writeSummaryViaStatsd((DistributionSummary) meter);
+        }
+        else if (meter instanceof FunctionTimer) {
+            writeTimerViaStatsd((FunctionTimer) meter);
+        }
+        else {
+            writeMeterViaStatsd(meter);
+        }
+    }
+
+    /**
+     * Reads the count directly rather than through {@link Counter#measure()}, which
+     * allocates a list, a measurement and a method reference every time.
+     */
+    private void writeCounterViaStatsd(Counter counter) {
+        StatsdMetric metric = statsdMetrics.get(counter.getId(), Statistic.COUNT);
+        telemetry.visited(metric);
+        writeMetricViaStatsd(metric, counter.count());
+    }
+
+    private void writeTimerViaStatsd(FunctionTimer timer) {
+        StatsdMetric metric = statsdMetrics.get(timer.getId(), null);
+        telemetry.visited(metric);
 
         // we can't know anything about max and percentiles originating from a function
         // timer
-        timer.measure().forEach(measurement -> {writeMetricViaStatsd(id, "", measurement.getValue(), Statistic.VALUE);});
-        return 3;
+        for (Measurement measurement : measure(timer)) {
+            writeMetricViaStatsd(metric, measurement.getValue());
+        }
     }
 
-    private Integer writeTimerViaStatsd(Timer timer) {
-        Meter.Id id = timer.getId();
+    private void writeTimerViaStatsd(Timer timer) {
+        if (timer instanceof DatadogDistributionTimer) {
+            // already sent as it was recorded, bar what is still buffered for packing
+            ((DatadogDistributionTimer) timer).flush();
+            telemetry.skipped(1);
+            return;
+        }
+        StatsdMetric metric = statsdMetrics.get(timer.getId(), null);
+        telemetry.visited(metric);
+        if (timer instanceof SketchedMeter) {
+            writeSketchViaStatsd(((SketchedMeter) timer).sketch());
+        }
+        if (distributionPacker != null) {
+            if (wireSender != null) {
+                telemetry.sent(metric, wireSender.writePacked(metric, StatsdWireSender.DISTRIBUTION, timer.measure()));
+            }
+            else {
+                distributionPacker.send(metric, timer.measure());
+            }
+            return;
+        }
 
         // we can't know anything about max and percentiles originating from a function
         // timer
-        timer.measure().forEach(measurement -> {writeMetricViaStatsd(id, "", measurement.getValue(), Statistic.VALUE);});
-        return 3;
+        for (Measurement measurement : timer.measure()) {
+            writeMetricViaStatsd(metric, measurement.getValue());
+        }
     }
 
-    private Integer writeSummaryViaStatsd(DistributionSummary summary) {
-        Meter.Id id = summary.getId();
-        summary.measure().forEach(measurement -> {writeMetricViaStatsd(id, "", measurement.getValue(), Statistic.VALUE);});
-        return 4;
+    private void writeSummaryViaStatsd(DistributionSummary summary) {
+        if (summary instanceof DatadogDistributionSummary) {
+            // already sent as it was recorded, bar what is still buffered for packing
+            ((DatadogDistributionSummary) summary).flush();
+            telemetry.skipped(1);
+            return;
+        }
+        StatsdMetric metric = statsdMetrics.get(summary.getId(), null);
+        telemetry.visited(metric);
+        if (summary instanceof SketchedMeter) {
+            writeSketchViaStatsd(((SketchedMeter) summary).sketch());
+        }
+        if (distributionPacker != null) {
+            if (wireSender != null) {
+                telemetry.sent(metric, wireSender.writePacked(metric, StatsdWireSender.DISTRIBUTION, summary.measure()));
+            }
+            else {
+                distributionPacker.send(metric, summary.measure());
+            }
+            return;
+        }
+        for (Measurement measurement : summary.measure()) {
+            writeMetricViaStatsd(metric, measurement.getValue());
+        }
     }
 
-    private Integer writeMeterViaStatsd(Meter m) {
-        long count = stream(m.measure().spliterator(), false).map(ms -> {
-            Meter.Id id = m.getId().withTag(ms.getStatistic());
-            writeMetricViaStatsd(id, null, ms.getValue(), ms.getStatistic());
-            return 1;
-        }).count();
-        return (int) count;
+    /**
+     * Writes the percentiles and SLO bucket counts of the previous step, from the same
+     * snapshot as its count, sum and max. Nothing is written for a step without values.
+     */
+    private void writeSketchViaStatsd(StepSketch sketch) {
+        StepSketch.Snapshot snapshot = sketch.snapshot();
+        if (snapshot.count == 0) {
+            return;
+        }
+        for (int i = 0; i < sketch.percentiles.length; i++) {
+            writeMetricViaStatsd(statsdMetrics.get(sketch.percentileIds[i], null),
+                    snapshot.valueAtQuantile(sketch.percentiles[i]) / sketch.unitScale);
+        }
+        for (int i = 0; i < sketch.buckets.length; i++) {
+            writeMetricViaStatsd(statsdMetrics.get(sketch.bucketIds[i], null), snapshot.countAtOrBelow(sketch.buckets[i]));
+        }
     }
 
-    // VisibleForTesting
-    void writeMetricViaStatsd(Meter.Id id, @io.micrometer.common.lang.Nullable String suffix, double value, Statistic statistic) {
-        Meter.Id fullId = id;
-        if (suffix != null) {
-            fullId = idWithSuffix(id, suffix);
+    private void writeMeterViaStatsd(Meter m) {
+        int count = 0;
+        for (Measurement ms : measure(m)) {
+            StatsdMetric metric = statsdMetrics.get(m.getId(), ms.getStatistic());
+            if (count++ == 0) {
+                telemetry.visited(metric);
+            }
+            writeMetricViaStatsd(metric, ms.getValue());
         }
+    }
 
-        Iterable<Tag> tags = getConventionTags(fullId);
-
-        List<String> tagsList = tags.iterator().hasNext() ? stream(tags.spliterator(), false)
-                .map(t -> "\"" + escapeJson(t.getKey()) + ":" + escapeJson(t.getValue()) + "\"")
-                .toList() : new ArrayList<>();
-        String[] tagsArray = new String[tagsList.size()];
-        tagsList.toArray(tagsArray);
-
-        String metricName = getConventionName(fullId);
+    /**
+     * @return The measurements of {@code meter}, as evaluated ahead of this publish if it
+     * has a callback.
+     */
+    private Iterable<Measurement> measure(Meter meter) {
+        return callbacks == null ? meter.measure() : callbacks.measure(meter);
+    }
 
+    // VisibleForTesting
+    void writeMetricViaStatsd(StatsdMetric metric, double value) {
+        boolean sent = true;
         // Create type attribute
-        switch (fullId.getType()) {
+        switch (metric.type) {
             case COUNTER:
-                statsDClient.count(metricName, value, 1.0, tagsArray);
+                if (wireSender != null) {
+                    sent = wireSender.write(metric, StatsdWireSender.COUNT, value);
+                }
+                else {
+                    statsDClient.get().count(metric.name, value, 1.0, metric.tags);
+                }
                 break;
             case LONG_TASK_TIMER:
                 // fall through
             case TIMER:
                 // fall through
             case DISTRIBUTION_SUMMARY:
-                statsDClient.distribution(metricName, value, 1.0, tagsArray);
+                if (wireSender != null) {
+                    sent = wireSender.write(metric, StatsdWireSender.DISTRIBUTION, value);
+                }
+                else {
+                    statsDClient.get().distribution(metric.name, value, 1.0, metric.tags);
+                }
                 break;
             default:
-                statsDClient.gauge(metricName, value, 1.0, tagsArray);
+                if (gaugeChangeFilter != null && !gaugeChangeFilter.shouldSend(metric, value)) {
+                    telemetry.suppressed(metric);
+                    return;
+                }
+                if (wireSender != null) {
+                    sent = wireSender.write(metric, StatsdWireSender.GAUGE, value);
+                }
+                else {
+                    statsDClient.get().gauge(metric.name, value, 1.0, metric.tags);
+                }
+        }
+        if (sent) {
+            telemetry.sent(metric);
         }
     }
 
-    private Meter.Id idWithSuffix(Meter.Id id, String suffix) {
-        if (suffix.isEmpty()) {
-            return id;
+    /**
+     * Applies the naming convention to {@code id}. Only called on a
+     * {@link StatsdMetricCache} miss.
+     */
+    private StatsdMetric resolveStatsdMetric(Meter.Id id) {
+        long start = clock.monotonicTime();
+        List<Tag> tags = getConventionTags(id);
+        String[] tagsArray = new String[tags.size()];
+        for (int i = 0; i < tagsArray.length; i++) {
+            Tag tag = tags.get(i);
+            tagsArray[i] = "\"" + escapeJson(tag.getKey()) + ":" + escapeJson(tag.getValue()) + "\"";
         }
-        return id.withName(id.getName() + "." + suffix);
+        StatsdMetric metric = new StatsdMetric(namePrefix + getConventionName(id), tagsArray, id.getType(),
+                config().namingConvention(), PublishTelemetry.isInternal(id));
+        telemetry.named(clock.monotonicTime() - start);
+        return metric;
     }
 
     @Override
     public Counter newCounter(Meter.Id id) {
-        return new StepCounter(id, clock, config.step().toMillis());
+        if (isDirtyTracked(id)) {
+            return new DatadogStepCounter(id, clock, config.step().toMillis(), dirtyMeters);
+        }
+        return new StepCounter(id, clock, stepMillis(id));
     }
 
     @Override
     public DistributionSummary newDistributionSummary(Meter.Id id, DistributionStatisticConfig distributionStatisticConfig, double scale) {
-        return new StepDistributionSummary(id, clock, distributionStatisticConfig, scale, config.step().toMillis(), true);
+        distributionStatisticConfig = tierHistogramConfig(id, distributionStatisticConfig);
+        if (config.directDistributions()) {
+            return new DatadogDistributionSummary(id, clock, distributionStatisticConfig, scale,
+                    new DirectDistribution(id, statsdMetrics, statsDClient, telemetry, distributionPacker, sampler(id)));
+        }
+        if (StepSketch.isWanted(distributionStatisticConfig)) {
+            return new DatadogSketchDistributionSummary(id, clock, distributionStatisticConfig, scale, stepMillis(id));
+        }
+        if (isDirtyTracked(id)) {
+            return new DatadogStepDistributionSummary(id, clock, distributionStatisticConfig, scale,
+                    config.step().toMillis(), dirtyMeters);
+        }
+        return new StepDistributionSummary(id, clock, distributionStatisticConfig, scale, stepMillis(id), true);
     }
 
     @Override
     protected Timer newTimer(Meter.Id id, DistributionStatisticConfig distributionStatisticConfig, PauseDetector pauseDetector) {
-        return new StepTimer(id, clock, distributionStatisticConfig, pauseDetector, getBaseTimeUnit(), config.step().toMillis(), true);
+        distributionStatisticConfig = tierHistogramConfig(id, distributionStatisticConfig);
+        if (config.directDistributions()) {
+            return new DatadogDistributionTimer(id, clock, distributionStatisticConfig, pauseDetector, getBaseTimeUnit(),
+                    new DirectDistribution(id, statsdMetrics, statsDClient, telemetry, distributionPacker, sampler(id)));
+        }
+        if (StepSketch.isWanted(distributionStatisticConfig)) {
+            return new DatadogSketchTimer(id, clock, distributionStatisticConfig, pauseDetector, getBaseTimeUnit(),
+                    stepMillis(id));
+        }
+        if (isDirtyTracked(id)) {
+            return new DatadogStepTimer(id, clock, distributionStatisticConfig, pauseDetector, getBaseTimeUnit(),
+                    config.step().toMillis(), dirtyMeters);
+        }
+        return new StepTimer(id, clock, distributionStatisticConfig, pauseDetector, getBaseTimeUnit(), stepMillis(id), true);
     }
 
     @Override
     protected <T> Gauge newGauge(Meter.Id id, @Nullable T obj, ToDoubleFunction<T> valueFunction) {
+        if (callbacks != null) {
+            return new DatadogCallbackGauge<>(id, obj, valueFunction);
+        }
         return new DefaultGauge<>(id, obj, valueFunction);
     }
 
     @Override
     protected LongTaskTimer newLongTaskTimer(Meter.Id id, DistributionStatisticConfig distributionStatisticConfig) {
+        if (!distributionStatisticConfig.isPublishingHistogram() && !distributionStatisticConfig.isPublishingPercentiles()) {
+            return new DatadogLongTaskTimer(id, clock, getBaseTimeUnit());
+        }
         return new CumulativeHistogramLongTaskTimer(id, clock, getBaseTimeUnit(), distributionStatisticConfig);
     }
 
     @Override
     protected <T> FunctionTimer newFunctionTimer(Meter.Id id, T obj, ToLongFunction<T> countFunction, ToDoubleFunction<T> totalTimeFunction, TimeUnit totalTimeFunctionUnit) {
-        return new StepFunctionTimer<>(id, clock, config.step().toMillis(), obj, countFunction, totalTimeFunction, totalTimeFunctionUnit, getBaseTimeUnit());
+        return new StepFunctionTimer<>(id, clock, stepMillis(id), obj, countFunction, totalTimeFunction, totalTimeFunctionUnit, getBaseTimeUnit());
     }
 
     @Override
     protected <T> FunctionCounter newFunctionCounter(Meter.Id id, T obj, ToDoubleFunction<T> countFunction) {
-        return new StepFunctionCounter<>(id, clock, config.step().toMillis(), obj, countFunction);
+        return new StepFunctionCounter<>(id, clock, stepMillis(id), obj, countFunction);
     }
 
     @Override
@@ -274,6 +885,43 @@ public class DatadogMeterRegistry extends PushMeterRegistry {
         return new DefaultMeter(id, type, measurements);
     }
 
+    @Nullable
+    private DistributionSampler sampler(Meter.Id id) {
+        int budget = config.distributionSampleBudget();
+        if (budget == -1 || unsampledDistributions.test(id)) {
+            return null;
+        }
+        return new DistributionSampler(clock, budget);
+    }
+
+    /**
+     * Meters in a publish tier are published whenever their tier is due, so they are never
+     * dirty-tracked.
+     */
+    private boolean isDirtyTracked(Meter.Id id) {
+        return dirtyMeters != null && !publishTiers.matches(id);
+    }
+
+    private long stepMillis(Meter.Id id) {
+        return publishTiers.stepMillis(id, config.step().toMillis());
+    }
+
+    /**
+     * @return {@code distributionStatisticConfig}, with the max and histogram of a tiered
+     * meter expiring over its tier's step rather than the registry's.
+     */
+    private DistributionStatisticConfig tierHistogramConfig(Meter.Id id,
+            DistributionStatisticConfig distributionStatisticConfig) {
+        long stepMillis = stepMillis(id);
+        if (stepMillis == config.step().toMillis()) {
+            return distributionStatisticConfig;
+        }
+        return DistributionStatisticConfig.builder()
+                .expiry(Duration.ofMillis(stepMillis))
+                .build()
+                .merge(distributionStatisticConfig);
+    }
+
     @Override
     @NonNull
     protected TimeUnit getBaseTimeUnit() {
@@ -287,4 +935,15 @@ public class DatadogMeterRegistry extends PushMeterRegistry {
                 .build()
                 .merge(DistributionStatisticConfig.DEFAULT);
     }
-}
\ No newline at end of file
+
+    private final class LimitedConfig extends Config {
+
+        @Override
+        public Config meterFilter(MeterFilter filter) {
+            cardinalityLimiter.addFilter(filter);
+            return this;
+        }
+
+    }
+
+}
@@ -6,8 +6,15 @@ import io.micrometer.core.instrument.Meter;
 import io.micrometer.core.instrument.config.NamingConvention;
 import io.micrometer.core.instrument.util.StringEscapeUtils;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
 /**
  * {@link NamingConvention} for Datadog.
+ * <p>
+ * Inputs that are already plain ASCII and need no escaping are returned as is. Everything
+ * else is converted once and memoized in bounded caches.
  *
  * @author Jon Schneider
  * @author Johnny Lim
@@ -16,8 +23,16 @@ public class DatadogNamingConvention implements NamingConvention {
 
     private static final int MAX_NAME_LENGTH = 200;
 
+    private static final int MAX_CACHE_SIZE = 4096;
+
     private final NamingConvention delegate;
 
+    private final Memo names = new Memo(MAX_CACHE_SIZE);
+
+    private final Memo tagKeys = new Memo(MAX_CACHE_SIZE);
+
+    private final Memo tagValues = new Memo(MAX_CACHE_SIZE);
+
     public DatadogNamingConvention() {
         this(NamingConvention.dot);
     }
@@ -35,8 +50,16 @@ public class DatadogNamingConvention implements NamingConvention {
      */
     @Override
     public String name(String name, Meter.Type type, @Nullable String baseUnit) {
+        String delegated = delegate.name(name, type, baseUnit);
+        if (isPlainName(delegated)) {
+            return delegated;
+        }
+        return names.get(delegated, DatadogNamingConvention::sanitizeName);
+    }
+
+    private static String sanitizeName(String name) {
         // forward slashes, even URL encoded, blow up the POST metadata API
-        String sanitized = StringEscapeUtils.escapeJson(delegate.name(name, type, baseUnit).replace('/', '_'));
+        String sanitized = StringEscapeUtils.escapeJson(name.replace('/', '_'));
 
         // Metrics that don't start with a letter get dropped on the floor by the Datadog
         // publish API,
@@ -54,7 +77,15 @@ public class DatadogNamingConvention implements NamingConvention {
      */
     @Override
     public String tagKey(String key) {
-        String sanitized = StringEscapeUtils.escapeJson(delegate.tagKey(key));
+        String delegated = delegate.tagKey(key);
+        if (!delegated.isEmpty() && !isAsciiDigit(delegated.charAt(0)) && isPlain(delegated)) {
+            return delegated;
+        }
+        return tagKeys.get(delegated, DatadogNamingConvention::sanitizeTagKey);
+    }
+
+    private static String sanitizeTagKey(String key) {
+        String sanitized = StringEscapeUtils.escapeJson(key);
         if (Character.isDigit(sanitized.charAt(0))) {
             sanitized = "m." + sanitized;
         }
@@ -68,7 +99,100 @@ public class DatadogNamingConvention implements NamingConvention {
      */
     @Override
     public String tagValue(String value) {
-        return StringEscapeUtils.escapeJson(delegate.tagValue(value));
+        String delegated = delegate.tagValue(value);
+        if (isPlain(delegated)) {
+            return delegated;
+        }
+        return tagValues.get(delegated, StringEscapeUtils::escapeJson);
+    }
+
+    /**
+     * @return {@code true} if {@link #sanitizeName(String)} would return {@code name}
+     * unchanged: it starts with an ASCII letter, is short enough, doesn't end in a dot
+     * and has nothing to escape or replace.
+     */
+    private static boolean isPlainName(String name) {
+        int length = name.length();
+        if (length == 0 || length > MAX_NAME_LENGTH || name.charAt(length - 1) == '.') {
+            return false;
+        }
+        char first = name.charAt(0);
+        if (!((first >= 'a' && first <= 'z') || (first >= 'A' && first <= 'Z'))) {
+            return false;
+        }
+        for (int i = 1; i < length; i++) {
+            char c = name.charAt(i);
+            if (!isPlain(c) || c == '/') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return {@code true} if {@link StringEscapeUtils#escapeJson(String)} would return
+     * {@code s} unchanged.
+     */
+    private static boolean isPlain(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (!isPlain(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isPlain(char c) {
+        return c >= 0x20 && c < 0x7f && c != '"' && c != '\\';
+    }
+
+    private static boolean isAsciiDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Concurrent memo holding at most {@code maxSize} entries. Entries live in two
+     * generations; once the young generation is half full it becomes the old one and the
+     * previous old generation is dropped, so recently used entries survive.
+     */
+    static final class Memo {
+
+        private final int maxSize;
+
+        private volatile Map<String, String> young = new ConcurrentHashMap<>();
+
+        private volatile Map<String, String> old = new ConcurrentHashMap<>();
+
+        Memo(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        String get(String key, UnaryOperator<String> compute) {
+            String value = young.get(key);
+            if (value != null) {
+                return value;
+            }
+            value = old.get(key);
+            if (value == null) {
+                value = compute.apply(key);
+            }
+            Map<String, String> young = this.young;
+            young.put(key, value);
+            if (young.size() >= maxSize / 2) {
+                synchronized (this) {
+                    if (this.young == young) {
+                        this.old = young;
+                        this.young = new ConcurrentHashMap<>();
+                    }
+                }
+            }
+            return value;
+        }
+
+        int size() {
+            return young.size() + old.size();
+        }
+
     }
 
 }
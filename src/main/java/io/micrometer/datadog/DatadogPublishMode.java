@@ -0,0 +1,18 @@
+package io.micrometer.datadog;
+
+/**
+ * How {@link DatadogMeterRegistry} gets metrics to Datadog.
+ */
+public enum DatadogPublishMode {
+
+    /**
+     * Through a DogStatsD server, usually the local Datadog Agent.
+     */
+    DOGSTATSD,
+
+    /**
+     * Straight to the Datadog metrics API over HTTP, for hosts that run no Agent.
+     */
+    HTTP
+
+}
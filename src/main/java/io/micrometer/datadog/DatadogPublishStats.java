@@ -0,0 +1,176 @@
+package io.micrometer.datadog;
+
+import java.time.Duration;
+
+/**
+ * Snapshot of the work {@link DatadogMeterRegistry} has done publishing since it was
+ * created. All counts are cumulative and leave out the registry's own telemetry meters.
+ */
+public final class DatadogPublishStats {
+
+    private final long publishes;
+
+    private final Duration lastPublishDuration;
+
+    private final Duration totalPublishDuration;
+
+    private final long metersVisited;
+
+    private final long metersSkipped;
+
+    private final long countsSent;
+
+    private final long gaugesSent;
+
+    private final long distributionsSent;
+
+    private final long gaugesSuppressed;
+
+    private final long transportErrors;
+
+    private final Duration namingTime;
+
+    private final long packetsSpilled;
+
+    private final long packetsReplayed;
+
+    private final long packetsEvicted;
+
+    private final long metersRejected;
+
+    private final long callbacksTimedOut;
+
+    private final long callbacksFailed;
+
+    DatadogPublishStats(PublishTelemetry telemetry) {
+        this.publishes = telemetry.publishes.sum();
+        this.lastPublishDuration = Duration.ofNanos(telemetry.lastPublishNanos);
+        this.totalPublishDuration = Duration.ofNanos(telemetry.publishNanos.sum());
+        this.metersVisited = telemetry.metersVisited.sum();
+        this.metersSkipped = telemetry.metersSkipped.sum();
+        this.countsSent = telemetry.countsSent.sum();
+        this.gaugesSent = telemetry.gaugesSent.sum();
+        this.distributionsSent = telemetry.distributionsSent.sum();
+        this.gaugesSuppressed = telemetry.gaugesSuppressed.sum();
+        this.transportErrors = telemetry.transportErrors.sum();
+        this.namingTime = Duration.ofNanos(telemetry.namingNanos.sum());
+        this.packetsSpilled = telemetry.packetsSpilled.sum();
+        this.packetsReplayed = telemetry.packetsReplayed.sum();
+        this.packetsEvicted = telemetry.spillEvictions.sum();
+        this.metersRejected = telemetry.metersRejected.sum();
+        this.callbacksTimedOut = telemetry.callbacksTimedOut.sum();
+        this.callbacksFailed = telemetry.callbacksFailed.sum();
+    }
+
+    public long getPublishes() {
+        return publishes;
+    }
+
+    public Duration getLastPublishDuration() {
+        return lastPublishDuration;
+    }
+
+    public Duration getTotalPublishDuration() {
+        return totalPublishDuration;
+    }
+
+    public long getMetersVisited() {
+        return metersVisited;
+    }
+
+    /**
+     * @return Meters left out of publish passes, because they were idle or already sent
+     * their values as they were recorded.
+     */
+    public long getMetersSkipped() {
+        return metersSkipped;
+    }
+
+    public long getCountsSent() {
+        return countsSent;
+    }
+
+    public long getGaugesSent() {
+        return gaugesSent;
+    }
+
+    /**
+     * @return Distribution values sent, both while publishing and directly on record.
+     */
+    public long getDistributionsSent() {
+        return distributionsSent;
+    }
+
+    public long getGaugesSuppressed() {
+        return gaugesSuppressed;
+    }
+
+    /**
+     * @return Errors reported by the Dogstatsd client, such as packets it failed to send.
+     */
+    public long getTransportErrors() {
+        return transportErrors;
+    }
+
+    /**
+     * @return Time spent applying the naming convention to meters that were not cached
+     * yet.
+     */
+    public Duration getNamingTime() {
+        return namingTime;
+    }
+
+    /**
+     * @return Packets that could not be sent and were spilled to disk.
+     */
+    public long getPacketsSpilled() {
+        return packetsSpilled;
+    }
+
+    public long getPacketsReplayed() {
+        return packetsReplayed;
+    }
+
+    /**
+     * @return Spilled packets that were dropped, never to be replayed, to make room for
+     * newer ones once the spill file was full.
+     */
+    public long getPacketsEvicted() {
+        return packetsEvicted;
+    }
+
+    /**
+     * @return Distinct new meters that were recorded under their name's
+     * {@code cardinality:overflow} meter instead, or not at all, because of the
+     * cardinality limits.
+     */
+    public long getMetersRejected() {
+        return metersRejected;
+    }
+
+    /**
+     * @return Gauge and function meter callbacks that ran past
+     * {@link DatadogConfig#callbackTimeout()}, so that their gauge was published with its
+     * last good value, or their function meter was skipped.
+     */
+    public long getCallbacksTimedOut() {
+        return callbacksTimedOut;
+    }
+
+    public long getCallbacksFailed() {
+        return callbacksFailed;
+    }
+
+    @Override
+    public String toString() {
+        return "DatadogPublishStats{publishes=" + publishes + ", lastPublishDuration=" + lastPublishDuration
+                + ", totalPublishDuration=" + totalPublishDuration + ", metersVisited=" + metersVisited
+                + ", metersSkipped=" + metersSkipped + ", countsSent=" + countsSent + ", gaugesSent=" + gaugesSent
+                + ", distributionsSent=" + distributionsSent + ", gaugesSuppressed=" + gaugesSuppressed
+                + ", transportErrors=" + transportErrors + ", namingTime=" + namingTime + ", packetsSpilled="
+                + packetsSpilled + ", packetsReplayed=" + packetsReplayed + ", packetsEvicted=" + packetsEvicted
+                + ", metersRejected=" + metersRejected + ", callbacksTimedOut=" + callbacksTimedOut
+                + ", callbacksFailed=" + callbacksFailed + '}';
+    }
+
+}
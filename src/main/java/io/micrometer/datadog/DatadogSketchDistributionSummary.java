@@ -0,0 +1,54 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.AbstractDistributionSummary;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.NoopHistogram;
+
+/**
+ * {@link io.micrometer.core.instrument.DistributionSummary} with percentiles or SLOs,
+ * whose step distribution is kept in a {@link StepSketch} in place of Micrometer's
+ * histogram. Count, total amount and max are those of the previous step.
+ */
+class DatadogSketchDistributionSummary extends AbstractDistributionSummary implements SketchedMeter {
+
+    private final StepSketch sketch;
+
+    DatadogSketchDistributionSummary(Id id, Clock clock, DistributionStatisticConfig distributionStatisticConfig,
+            double scale, long stepMillis) {
+        super(id, scale, NoopHistogram.INSTANCE);
+        this.sketch = new StepSketch(id, clock, stepMillis, distributionStatisticConfig, 1);
+    }
+
+    @Override
+    protected void recordNonNegative(double amount) {
+        sketch.record(amount);
+    }
+
+    @Override
+    public long count() {
+        return sketch.snapshot().count;
+    }
+
+    @Override
+    public double totalAmount() {
+        return sketch.snapshot().total;
+    }
+
+    @Override
+    public double max() {
+        return sketch.snapshot().max;
+    }
+
+    @Override
+    public HistogramSnapshot takeSnapshot() {
+        return sketch.histogramSnapshot();
+    }
+
+    @Override
+    public StepSketch sketch() {
+        return sketch;
+    }
+
+}
@@ -0,0 +1,58 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.AbstractTimer;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.NoopHistogram;
+import io.micrometer.core.instrument.distribution.pause.PauseDetector;
+import io.micrometer.core.instrument.util.TimeUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link io.micrometer.core.instrument.Timer} with percentiles or SLOs, whose step
+ * distribution is kept in a {@link StepSketch} of nanoseconds in place of Micrometer's
+ * histogram. Count, total time and max are those of the previous step.
+ */
+class DatadogSketchTimer extends AbstractTimer implements SketchedMeter {
+
+    private final StepSketch sketch;
+
+    DatadogSketchTimer(Id id, Clock clock, DistributionStatisticConfig distributionStatisticConfig,
+            PauseDetector pauseDetector, TimeUnit baseTimeUnit, long stepMillis) {
+        super(id, clock, pauseDetector, baseTimeUnit, NoopHistogram.INSTANCE);
+        this.sketch = new StepSketch(id, clock, stepMillis, distributionStatisticConfig, baseTimeUnit.toNanos(1));
+    }
+
+    @Override
+    protected void recordNonNegative(long amount, TimeUnit unit) {
+        sketch.record(unit.toNanos(amount));
+    }
+
+    @Override
+    public long count() {
+        return sketch.snapshot().count;
+    }
+
+    @Override
+    public double totalTime(TimeUnit unit) {
+        return TimeUtils.nanosToUnit(sketch.snapshot().total, unit);
+    }
+
+    @Override
+    public double max(TimeUnit unit) {
+        return TimeUtils.nanosToUnit(sketch.snapshot().max, unit);
+    }
+
+    @Override
+    public HistogramSnapshot takeSnapshot() {
+        return sketch.histogramSnapshot();
+    }
+
+    @Override
+    public StepSketch sketch() {
+        return sketch;
+    }
+
+}
@@ -0,0 +1,30 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.step.StepCounter;
+
+/**
+ * {@link StepCounter} that marks itself dirty the first time it is incremented in a
+ * step.
+ */
+class DatadogStepCounter extends StepCounter implements DirtyTrackedMeter {
+
+    private final DirtyMeterIndex.Entry dirtyEntry;
+
+    DatadogStepCounter(Id id, Clock clock, long stepMillis, DirtyMeterIndex dirtyMeters) {
+        super(id, clock, stepMillis);
+        this.dirtyEntry = dirtyMeters.track(this);
+    }
+
+    @Override
+    public void increment(double amount) {
+        super.increment(amount);
+        dirtyEntry.recorded();
+    }
+
+    @Override
+    public DirtyMeterIndex.Entry dirtyEntry() {
+        return dirtyEntry;
+    }
+
+}
@@ -0,0 +1,32 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.step.StepDistributionSummary;
+
+/**
+ * {@link StepDistributionSummary} that marks itself dirty the first time it is recorded
+ * to in a step.
+ */
+class DatadogStepDistributionSummary extends StepDistributionSummary implements DirtyTrackedMeter {
+
+    private final DirtyMeterIndex.Entry dirtyEntry;
+
+    DatadogStepDistributionSummary(Id id, Clock clock, DistributionStatisticConfig distributionStatisticConfig,
+            double scale, long stepMillis, DirtyMeterIndex dirtyMeters) {
+        super(id, clock, distributionStatisticConfig, scale, stepMillis, true);
+        this.dirtyEntry = dirtyMeters.track(this);
+    }
+
+    @Override
+    protected void recordNonNegative(double amount) {
+        super.recordNonNegative(amount);
+        dirtyEntry.recorded();
+    }
+
+    @Override
+    public DirtyMeterIndex.Entry dirtyEntry() {
+        return dirtyEntry;
+    }
+
+}
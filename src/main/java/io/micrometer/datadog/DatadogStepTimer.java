@@ -0,0 +1,34 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.pause.PauseDetector;
+import io.micrometer.core.instrument.step.StepTimer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link StepTimer} that marks itself dirty the first time it is recorded to in a step.
+ */
+class DatadogStepTimer extends StepTimer implements DirtyTrackedMeter {
+
+    private final DirtyMeterIndex.Entry dirtyEntry;
+
+    DatadogStepTimer(Id id, Clock clock, DistributionStatisticConfig distributionStatisticConfig,
+            PauseDetector pauseDetector, TimeUnit baseTimeUnit, long stepMillis, DirtyMeterIndex dirtyMeters) {
+        super(id, clock, distributionStatisticConfig, pauseDetector, baseTimeUnit, stepMillis, true);
+        this.dirtyEntry = dirtyMeters.track(this);
+    }
+
+    @Override
+    protected void recordNonNegative(long amount, TimeUnit unit) {
+        super.recordNonNegative(amount, unit);
+        dirtyEntry.recorded();
+    }
+
+    @Override
+    public DirtyMeterIndex.Entry dirtyEntry() {
+        return dirtyEntry;
+    }
+
+}
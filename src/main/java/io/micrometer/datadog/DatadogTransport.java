@@ -0,0 +1,136 @@
+package io.micrometer.datadog;
+
+import com.timgroup.statsd.NonBlockingStatsDClientBuilder;
+import com.timgroup.statsd.StatsDClient;
+import com.timgroup.statsd.StatsDClientErrorHandler;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Dogstatsd client that several {@link DatadogMeterRegistry registries} in one JVM
+ * share, along with its sender and processor threads, buffer pool and socket.
+ * <p>
+ * The client is built from the transport settings of the config it is created with, and
+ * without a prefix: each registry attached with
+ * {@link DatadogMeterRegistry.Builder#transport} keeps its own
+ * {@link DatadogConfig#prefix() prefix} by baking it into its metric names, and its own
+ * common tags. Errors the client reports are counted by every attached registry.
+ * <p>
+ * The transport is reference-counted. It holds one reference for its creator, dropped by
+ * {@link #close()}, and one for each registry until that registry is closed. The client
+ * is stopped when the last reference is dropped, so the creator can close the transport
+ * as soon as the registries are built.
+ */
+public final class DatadogTransport implements AutoCloseable {
+
+    private final StatsDClient statsDClient;
+
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private final List<PublishTelemetry> attached = new CopyOnWriteArrayList<>();
+
+    private DatadogTransport(DatadogConfig config) {
+        this.statsDClient = newClient(config, "", e -> {
+            for (PublishTelemetry telemetry : attached) {
+                telemetry.transportError();
+            }
+        });
+    }
+
+    /**
+     * @param config The transport settings, such as {@link DatadogConfig#statsdAddress()}
+     * and {@link DatadogConfig#senderWorkers()}. Its prefix is not used.
+     */
+    public static DatadogTransport create(DatadogConfig config) {
+        return new DatadogTransport(config);
+    }
+
+    /**
+     * Drops the creator's reference. The client is stopped once every registry using it
+     * has been closed too.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            release();
+        }
+    }
+
+    StatsDClient attach(PublishTelemetry telemetry) {
+        references.getAndUpdate(count -> {
+            if (count == 0) {
+                throw new IllegalStateException("the Datadog transport has been closed");
+            }
+            return count + 1;
+        });
+        attached.add(telemetry);
+        return statsDClient;
+    }
+
+    void detach(PublishTelemetry telemetry) {
+        if (attached.remove(telemetry)) {
+            release();
+        }
+    }
+
+    private void release() {
+        if (references.decrementAndGet() == 0) {
+            statsDClient.stop();
+        }
+    }
+
+    static StatsDClient newClient(DatadogConfig config, String prefix, StatsDClientErrorHandler errorHandler) {
+        NonBlockingStatsDClientBuilder builder = new NonBlockingStatsDClientBuilder();
+        builder = builder.prefix(prefix);
+
+        // performance tune-ables
+        builder = builder.enableTelemetry(config.enableClientSideTelemetry())
+                .enableAggregation(config.enableAggregation());
+        if (config.enableAggregation()) {
+            builder = builder.aggregationFlushInterval(config.aggregationFlushInterval())
+                    .aggregationShards(config.aggregationShards());
+        }
+
+        if (config.maxPacketSizeBytes() != -1) {
+            builder = builder.maxPacketSizeBytes(config.maxPacketSizeBytes());
+        }
+
+        // transport tune-ables, the client's defaults unless configured
+        if (config.senderWorkers() != -1) {
+            builder = builder.senderWorkers(config.senderWorkers());
+        }
+        if (config.processorWorkers() != -1) {
+            builder = builder.processorWorkers(config.processorWorkers());
+        }
+        if (config.queueSize() != -1) {
+            builder = builder.queueSize(config.queueSize());
+        }
+        if (config.socketBufferSize() != -1) {
+            builder = builder.socketBufferSize(config.socketBufferSize());
+        }
+        if (config.bufferPoolSize() != -1) {
+            builder = builder.bufferPoolSize(config.bufferPoolSize());
+        }
+        builder = builder.blocking(config.blocking());
+
+        builder = builder.errorHandler(errorHandler);
+
+        // where to report data comes from the config, or else from the
+        // "DD_AGENT_HOST" and "DD_DOGSTATSD_PORT" environment variables
+        String address = config.statsdAddress();
+        if (address != null) {
+            StatsdAddress statsdAddress = StatsdAddress.parse(address);
+            if (statsdAddress != null) {
+                builder = builder.hostname(statsdAddress.host).port(statsdAddress.port);
+            }
+        }
+
+        return builder.build();
+    }
+
+}
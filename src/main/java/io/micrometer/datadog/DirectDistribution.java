@@ -0,0 +1,201 @@
+package io.micrometer.datadog;
+
+import com.timgroup.statsd.StatsDClient;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.lang.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Sends the values recorded by a direct distribution meter straight to DogStatsD, with
+ * the meter's name and tags resolved once up front.
+ * <p>
+ * With a {@link DistributionPacker}, values are instead buffered and sent as packed
+ * messages whenever {@link #BUFFERED_VALUES} have been recorded, and on every publish.
+ * With a {@link DistributionSampler}, values are handed to the client with their sample
+ * rate, for the client to sample them, one by one or a whole packed message at a time. A
+ * buffer only ever holds values of one sample rate and is sent early when the rate
+ * changes.
+ * <p>
+ * Each meter has one buffer, and each thread one scratch buffer that a full buffer is
+ * copied to and sent from, so that recording allocates nothing.
+ * <p>
+ * Until a {@link DatadogConfig#lazyStart() lazily started} client has been built, on the
+ * first publish, values are held by the meter instead, unsampled, up to
+ * {@link #MAX_HELD_VALUES} of them, and sent on the publish.
+ */
+final class DirectDistribution {
+
+    static final int BUFFERED_VALUES = 64;
+
+    static final int MAX_HELD_VALUES = 8192;
+
+    private static final ThreadLocal<double[]> SCRATCH = ThreadLocal.withInitial(() -> new double[BUFFERED_VALUES]);
+
+    private final Meter.Id id;
+
+    private final StatsdMetricCache statsdMetrics;
+
+    private final LazyStatsDClient statsDClient;
+
+    private final PublishTelemetry telemetry;
+
+    @Nullable
+    private final DistributionPacker packer;
+
+    @Nullable
+    private final DistributionSampler sampler;
+
+    private volatile StatsdMetric metric;
+
+    private final double[] buffer;
+
+    private int buffered;
+
+    private double bufferedSampleRate = 1.0;
+
+    /**
+     * Values recorded before the client was built.
+     */
+    @Nullable
+    private double[] held;
+
+    private int heldCount;
+
+    DirectDistribution(Meter.Id id, StatsdMetricCache statsdMetrics, LazyStatsDClient statsDClient,
+            PublishTelemetry telemetry, @Nullable DistributionPacker packer, @Nullable DistributionSampler sampler) {
+        this.id = id;
+        this.statsdMetrics = statsdMetrics;
+        this.statsDClient = statsDClient;
+        this.telemetry = telemetry;
+        this.packer = packer;
+        this.sampler = sampler;
+        this.metric = statsdMetrics.get(id, null);
+        this.buffer = packer == null ? new double[0] : new double[BUFFERED_VALUES];
+    }
+
+    void record(double value) {
+        if (!statsDClient.isBuilt() && hold(value)) {
+            return;
+        }
+        double sampleRate = sampler == null ? 1.0 : sampler.sampleRate();
+        if (packer == null) {
+            StatsdMetric metric = metric();
+            statsDClient.get().distribution(metric.name, value, sampleRate, metric.tags);
+            telemetry.sent(metric);
+            return;
+        }
+
+        double[] full = null;
+        int fullCount = 0;
+        double fullSampleRate = 1.0;
+        synchronized (this) {
+            if (buffered > 0 && sampleRate != bufferedSampleRate) {
+                full = drain();
+                fullCount = buffered;
+                fullSampleRate = bufferedSampleRate;
+                buffered = 0;
+            }
+            bufferedSampleRate = sampleRate;
+            buffer[buffered++] = value;
+            if (full == null && buffered == buffer.length) {
+                full = drain();
+                fullCount = buffered;
+                fullSampleRate = sampleRate;
+                buffered = 0;
+            }
+        }
+        if (full != null) {
+            packer.send(metric(), full, fullCount, fullSampleRate);
+        }
+    }
+
+    /**
+     * @return {@code false} if the client was built meanwhile, and {@code value} has to be
+     * sent instead.
+     */
+    private synchronized boolean hold(double value) {
+        if (statsDClient.isBuilt()) {
+            return false;
+        }
+        if (held == null) {
+            held = new double[BUFFERED_VALUES];
+        }
+        else if (heldCount == held.length && held.length < MAX_HELD_VALUES) {
+            held = Arrays.copyOf(held, held.length * 2);
+        }
+        if (heldCount < held.length) {
+            held[heldCount++] = value;
+        }
+        return true;
+    }
+
+    /**
+     * Sends whatever values are still buffered, or held until the client was built.
+     */
+    void flush() {
+        if (statsDClient.isBuilt()) {
+            sendHeld();
+        }
+        if (packer == null) {
+            return;
+        }
+        double[] values;
+        int count;
+        double sampleRate;
+        synchronized (this) {
+            if (buffered == 0) {
+                return;
+            }
+            values = drain();
+            count = buffered;
+            sampleRate = bufferedSampleRate;
+            buffered = 0;
+        }
+        packer.send(metric(), values, count, sampleRate);
+    }
+
+    private void sendHeld() {
+        double[] values;
+        int count;
+        synchronized (this) {
+            values = held;
+            count = heldCount;
+            held = null;
+            heldCount = 0;
+        }
+        if (values == null) {
+            return;
+        }
+        StatsdMetric metric = metric();
+        if (packer != null) {
+            packer.send(metric, values, count);
+            return;
+        }
+        StatsDClient statsDClient = this.statsDClient.get();
+        for (int i = 0; i < count; i++) {
+            statsDClient.distribution(metric.name, values[i], 1.0, metric.tags);
+        }
+        telemetry.sent(metric, count);
+    }
+
+    /**
+     * @return The buffered values, copied into this thread's scratch buffer so that they
+     * can be sent outside of the lock while recording goes on into the meter's buffer.
+     */
+    private double[] drain() {
+        double[] scratch = SCRATCH.get();
+        System.arraycopy(buffer, 0, scratch, 0, buffered);
+        return scratch;
+    }
+
+    private StatsdMetric metric() {
+        StatsdMetric metric = this.metric;
+        if (statsdMetrics.isStale(metric)) {
+            metric = statsdMetrics.get(id, null);
+            this.metric = metric;
+        }
+        return metric;
+    }
+
+}
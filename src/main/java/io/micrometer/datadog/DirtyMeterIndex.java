@@ -0,0 +1,108 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Meter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Lock-free index of the step meters that have been recorded to since they were last
+ * published, so that a publish only visits meters with activity.
+ * <p>
+ * A meter enqueues itself the first time it is recorded to in a step. Each publish
+ * drains the queue and keeps a meter queued while it was recorded to in the current
+ * step, or less than {@code keepaliveSteps} steps ago, so that idle meters still send a
+ * few zeros before going quiet.
+ */
+final class DirtyMeterIndex {
+
+    private final Clock clock;
+
+    private final long stepMillis;
+
+    private final long keepaliveSteps;
+
+    private final Queue<Entry> dirty = new ConcurrentLinkedQueue<>();
+
+    DirtyMeterIndex(Clock clock, long stepMillis, long keepaliveSteps) {
+        this.clock = clock;
+        this.stepMillis = stepMillis;
+        this.keepaliveSteps = keepaliveSteps;
+    }
+
+    Entry track(Meter meter) {
+        return new Entry(meter);
+    }
+
+    /**
+     * @return The meters that were recorded to, or are being kept alive, since the last
+     * drain. Each meter is returned at most once.
+     */
+    List<Meter> drain() {
+        long step = clock.wallTime() / stepMillis;
+
+        List<Entry> drained = new ArrayList<>();
+        for (Entry entry; (entry = dirty.poll()) != null;) {
+            drained.add(entry);
+        }
+
+        List<Meter> meters = new ArrayList<>(drained.size());
+        List<Entry> keep = new ArrayList<>();
+        for (Entry entry : drained) {
+            if (entry.removed) {
+                continue;
+            }
+            meters.add(entry.meter);
+            if (step - entry.lastRecordedStep <= keepaliveSteps) {
+                keep.add(entry);
+            }
+            else {
+                entry.queued = 0;
+                // a recording racing with the release could not enqueue the entry itself
+                if (entry.lastRecordedStep == step && Entry.QUEUED.compareAndSet(entry, 0, 1)) {
+                    keep.add(entry);
+                }
+            }
+        }
+        dirty.addAll(keep);
+        return meters;
+    }
+
+    final class Entry {
+
+        static final AtomicIntegerFieldUpdater<Entry> QUEUED = AtomicIntegerFieldUpdater.newUpdater(Entry.class,
+                "queued");
+
+        private final Meter meter;
+
+        private volatile long lastRecordedStep = Long.MIN_VALUE;
+
+        private volatile int queued;
+
+        private volatile boolean removed;
+
+        private Entry(Meter meter) {
+            this.meter = meter;
+        }
+
+        void recorded() {
+            long step = clock.wallTime() / stepMillis;
+            if (lastRecordedStep != step) {
+                lastRecordedStep = step;
+                if (QUEUED.compareAndSet(this, 0, 1)) {
+                    dirty.add(this);
+                }
+            }
+        }
+
+        void removed() {
+            removed = true;
+        }
+
+    }
+
+}
@@ -0,0 +1,10 @@
+package io.micrometer.datadog;
+
+/**
+ * A step meter that reports its recordings to a {@link DirtyMeterIndex}.
+ */
+interface DirtyTrackedMeter {
+
+    DirtyMeterIndex.Entry dirtyEntry();
+
+}
@@ -0,0 +1,147 @@
+package io.micrometer.datadog;
+
+import com.timgroup.statsd.StatsDClient;
+import io.micrometer.core.instrument.Measurement;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Sends several values of one distribution series as a single DogStatsD protocol v1.1
+ * message, {@code name:v1:v2:v3|d|#tags}, so that the name and tags go over the wire once
+ * rather than once per value. Values are split over as many messages as needed to keep
+ * each one within the configured packet size.
+ * <p>
+ * The Dogstatsd client has no multi-value API, so all values but the last are folded into
+ * the aspect, formatted the way the client formats its own, and the last one is handed to
+ * {@link StatsDClient#distribution(String, double, double, String...)} as usual.
+ */
+final class DistributionPacker {
+
+    /**
+     * The client's default packet size for UDP, used when none is configured.
+     */
+    static final int DEFAULT_MAX_PACKET_SIZE_BYTES = 1432;
+
+    /**
+     * Room left in every packet for what the client adds to a message: the metric
+     * prefix, constant and entity tags, and the message type.
+     */
+    static final int RESERVED_BYTES = 256;
+
+    private static final int MIN_VALUE_BYTES = 64;
+
+    private static final ThreadLocal<Batch> BATCH = ThreadLocal.withInitial(Batch::new);
+
+    private final LazyStatsDClient statsDClient;
+
+    private final int maxPacketSizeBytes;
+
+    private final PublishTelemetry telemetry;
+
+    DistributionPacker(LazyStatsDClient statsDClient, int maxPacketSizeBytes, PublishTelemetry telemetry) {
+        this.statsDClient = statsDClient;
+        this.maxPacketSizeBytes = maxPacketSizeBytes == -1 ? DEFAULT_MAX_PACKET_SIZE_BYTES : maxPacketSizeBytes;
+        this.telemetry = telemetry;
+    }
+
+    /**
+     * Sends the values of {@code measurements} as packed messages of {@code metric}.
+     */
+    void send(StatsdMetric metric, Iterable<Measurement> measurements) {
+        Batch batch = BATCH.get();
+        batch.count = 0;
+        for (Measurement measurement : measurements) {
+            batch.add(measurement.getValue());
+        }
+        send(metric, batch.values, batch.count);
+    }
+
+    /**
+     * Sends the first {@code count} entries of {@code values} as packed messages of
+     * {@code metric}.
+     */
+    void send(StatsdMetric metric, double[] values, int count) {
+        send(metric, values, count, 1.0);
+    }
+
+    /**
+     * Sends the first {@code count} entries of {@code values}, all sampled at
+     * {@code sampleRate}, as packed messages of {@code metric}.
+     */
+    void send(StatsdMetric metric, double[] values, int count, double sampleRate) {
+        if (count == 0) {
+            return;
+        }
+        StatsDClient statsDClient = this.statsDClient.get();
+        int budget = Math.max(MIN_VALUE_BYTES, maxPacketSizeBytes - RESERVED_BYTES - headerBytes(metric));
+        Batch batch = BATCH.get();
+        StringBuilder aspect = batch.aspect;
+        aspect.setLength(0);
+        aspect.append(metric.name);
+
+        double pending = values[0];
+        for (int i = 1; i < count; i++) {
+            int mark = aspect.length();
+            aspect.append(':');
+            batch.append(pending);
+            int folded = aspect.length();
+            // the next value has to fit too, as the message's own
+            aspect.append(':');
+            batch.append(values[i]);
+            if (aspect.length() - metric.name.length() > budget) {
+                aspect.setLength(mark);
+                statsDClient.distribution(aspect.toString(), pending, sampleRate, metric.tags);
+                aspect.setLength(metric.name.length());
+            }
+            else {
+                aspect.setLength(folded);
+            }
+            pending = values[i];
+        }
+        statsDClient.distribution(aspect.toString(), pending, sampleRate, metric.tags);
+        telemetry.sent(metric, count);
+    }
+
+    private static int headerBytes(StatsdMetric metric) {
+        int bytes = metric.name.length();
+        for (String tag : metric.tags) {
+            bytes += tag.length() + 1;
+        }
+        return bytes;
+    }
+
+    /**
+     * A thread's buffers for packing, reused from one message to the next.
+     */
+    private static final class Batch {
+
+        double[] values = new double[4];
+
+        int count;
+
+        final StringBuilder aspect = new StringBuilder();
+
+        private final ByteBuffer digits = ByteBuffer.allocate(32);
+
+        void add(double value) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = value;
+        }
+
+        /**
+         * Appends {@code value} to the aspect, formatted as the client formats values.
+         */
+        void append(double value) {
+            digits.clear();
+            StatsdWireSender.putDouble(digits, value);
+            for (int i = 0; i < digits.position(); i++) {
+                aspect.append((char) digits.get(i));
+            }
+        }
+
+    }
+
+}
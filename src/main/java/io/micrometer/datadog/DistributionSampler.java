@@ -0,0 +1,64 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.Clock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Picks the sample rate of one direct distribution so that it sends at most
+ * {@link DatadogConfig#distributionSampleBudget()} values per second. Values are handed to
+ * the Dogstatsd client with that rate, and the client keeps each one with that probability
+ * and sends it annotated with the rate, which the Agent scales counts back up by. The
+ * client is the only one to draw, as a value sampled here as well would be kept at the
+ * square of the rate.
+ * <p>
+ * Recordings are counted on a striped counter, and the sample rate is recomputed from the
+ * rate of the last window of at least a second, so it trails a change in volume by about a
+ * second. Meters within the budget get a rate of 1, which the client never draws for.
+ */
+final class DistributionSampler {
+
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Clock clock;
+
+    private final int budget;
+
+    private final LongAdder recorded = new LongAdder();
+
+    private volatile long windowStart;
+
+    private volatile double sampleRate = 1.0;
+
+    DistributionSampler(Clock clock, int budget) {
+        this.clock = clock;
+        this.budget = budget;
+        this.windowStart = clock.monotonicTime();
+    }
+
+    /**
+     * Counts a recorded value.
+     * @return The rate to send the value at.
+     */
+    double sampleRate() {
+        recorded.increment();
+        long now = clock.monotonicTime();
+        if (now - windowStart >= WINDOW_NANOS) {
+            roll(now);
+        }
+        return sampleRate;
+    }
+
+    private synchronized void roll(long now) {
+        long elapsed = now - windowStart;
+        if (elapsed < WINDOW_NANOS) {
+            // another thread got here first
+            return;
+        }
+        double perSecond = recorded.sumThenReset() * (double) WINDOW_NANOS / elapsed;
+        sampleRate = perSecond <= budget ? 1.0 : budget / perSecond;
+        windowStart = now;
+    }
+
+}
@@ -0,0 +1,45 @@
+package io.micrometer.datadog;
+
+/**
+ * Suppresses gauge values that have not moved since they were last sent, while still
+ * resending every {@code heartbeatSteps} steps so that the series never looks stale in
+ * Datadog.
+ */
+final class GaugeChangeFilter {
+
+    private final int heartbeatSteps;
+
+    private final double changeThreshold;
+
+    private final double relativeChangeThreshold;
+
+    GaugeChangeFilter(int heartbeatSteps, double changeThreshold, double relativeChangeThreshold) {
+        this.heartbeatSteps = heartbeatSteps;
+        this.changeThreshold = changeThreshold;
+        this.relativeChangeThreshold = relativeChangeThreshold;
+    }
+
+    /**
+     * @return {@code true} if {@code value} should be sent for {@code metric} this step.
+     * The metric remembers what was sent.
+     */
+    boolean shouldSend(StatsdMetric metric, double value) {
+        if (metric.sent && metric.unsentSteps + 1 < heartbeatSteps && isUnchanged(metric.lastSentValue, value)) {
+            metric.unsentSteps++;
+            return false;
+        }
+        metric.sent = true;
+        metric.lastSentValue = value;
+        metric.unsentSteps = 0;
+        return true;
+    }
+
+    private boolean isUnchanged(double last, double value) {
+        if (Double.compare(last, value) == 0) {
+            return true;
+        }
+        double change = Math.abs(value - last);
+        return change <= changeThreshold || change <= relativeChangeThreshold * Math.abs(last);
+    }
+
+}
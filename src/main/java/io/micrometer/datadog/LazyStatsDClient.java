@@ -0,0 +1,55 @@
+package io.micrometer.datadog;
+
+import com.timgroup.statsd.StatsDClient;
+import io.micrometer.core.lang.Nullable;
+
+import java.util.function.Supplier;
+
+/**
+ * The Dogstatsd client of a registry, which with {@link DatadogConfig#lazyStart()} is
+ * only built, along with its threads and socket, on the first publish. Recording threads
+ * check {@link #isBuilt()} and hold on to their values until then, so that they never
+ * build it, nor see it fail to resolve the agent.
+ */
+final class LazyStatsDClient implements Supplier<StatsDClient> {
+
+    @Nullable
+    private Supplier<StatsDClient> factory;
+
+    @Nullable
+    private volatile StatsDClient client;
+
+    private LazyStatsDClient(@Nullable Supplier<StatsDClient> factory, @Nullable StatsDClient client) {
+        this.factory = factory;
+        this.client = client;
+    }
+
+    static LazyStatsDClient of(StatsDClient client) {
+        return new LazyStatsDClient(null, client);
+    }
+
+    static LazyStatsDClient lazy(Supplier<StatsDClient> factory) {
+        return new LazyStatsDClient(factory, null);
+    }
+
+    @Override
+    public StatsDClient get() {
+        StatsDClient client = this.client;
+        if (client == null) {
+            synchronized (this) {
+                client = this.client;
+                if (client == null) {
+                    client = factory.get();
+                    factory = null;
+                    this.client = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    boolean isBuilt() {
+        return client != null;
+    }
+
+}
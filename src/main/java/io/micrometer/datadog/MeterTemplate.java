@@ -0,0 +1,162 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * A meter declared once with fixed tag keys, whose meters are looked up by their tag
+ * values alone. Lookups of a meter that was looked up before go through a tree of maps
+ * keyed by the raw values, one level per tag key, and allocate nothing: no {@link Tags},
+ * {@link Meter.Id} or builder. Only the first lookup of a set of values registers the
+ * meter with the registry.
+ * <p>
+ * At most {@link #MAX_CACHED_METERS} sets of values are kept in the tree, so that a tag
+ * of unbounded values, such as a request id, doesn't grow it without end. Values beyond
+ * that are looked up through the registry every time.
+ * <p>
+ * Templates are made by {@link DatadogMeterRegistry#template} and its shortcuts, and are
+ * meant to be kept in a field. The registry holds on to them weakly, to invalidate them
+ * when one of their meters is removed.
+ *
+ * @param <M> The type of meter.
+ */
+public final class MeterTemplate<M extends Meter> {
+
+    static final int MAX_CACHED_METERS = 4096;
+
+    private final String[] tagKeys;
+
+    private final Function<Tags, M> register;
+
+    /**
+     * Every meter in the tree. Guarded by {@code this}, like the tree's updates.
+     */
+    private final Set<Meter> meters = new HashSet<>();
+
+    private int cached;
+
+    /**
+     * Counts the registry's meter removals, so that a meter removed while it was being
+     * registered is not put in the tree.
+     */
+    private volatile long removals;
+
+    private volatile Node root = new Node();
+
+    MeterTemplate(String[] tagKeys, Function<Tags, M> register) {
+        if (tagKeys.length == 0) {
+            throw new IllegalArgumentException("a meter template needs at least one tag key");
+        }
+        this.tagKeys = tagKeys.clone();
+        this.register = register;
+    }
+
+    public M get(String value) {
+        checkArity(1);
+        M meter = root.get(value);
+        return meter != null ? meter : register(value);
+    }
+
+    public M get(String value1, String value2) {
+        checkArity(2);
+        Node node = root.get(value1);
+        M meter = node == null ? null : node.get(value2);
+        return meter != null ? meter : register(value1, value2);
+    }
+
+    public M get(String value1, String value2, String value3) {
+        checkArity(3);
+        Node node = root.get(value1);
+        node = node == null ? null : node.get(value2);
+        M meter = node == null ? null : node.get(value3);
+        return meter != null ? meter : register(value1, value2, value3);
+    }
+
+    /**
+     * @param values One value per tag key, in the order of the keys.
+     */
+    public M get(String... values) {
+        checkArity(values.length);
+        Object node = root;
+        for (int i = 0; node != null && i < values.length; i++) {
+            node = ((Node) node).get(values[i]);
+        }
+        @SuppressWarnings("unchecked")
+        M meter = (M) node;
+        return meter != null ? meter : register(values);
+    }
+
+    /**
+     * Clears the tree if {@code meter} is in it, so that the next lookup of its values
+     * registers it again.
+     */
+    synchronized void removed(Meter meter) {
+        removals++;
+        if (meters.contains(meter)) {
+            meters.clear();
+            cached = 0;
+            root = new Node();
+        }
+    }
+
+    private M register(String... values) {
+        Tag[] tags = new Tag[values.length];
+        for (int i = 0; i < values.length; i++) {
+            tags[i] = Tag.of(tagKeys[i], values[i]);
+        }
+        long removalsBefore = this.removals;
+        M meter = register.apply(Tags.of(tags));
+        cache(meter, values, removalsBefore);
+        return meter;
+    }
+
+    /**
+     * @return How many sets of values are in the tree.
+     */
+    synchronized int cached() {
+        return cached;
+    }
+
+    private synchronized void cache(M meter, String[] values, long removalsBefore) {
+        // the meter may have been removed already, the next lookup will tell
+        if (removals != removalsBefore || cached >= MAX_CACHED_METERS) {
+            return;
+        }
+        Node node = root;
+        for (int i = 0; i < values.length - 1; i++) {
+            node = (Node) node.children.computeIfAbsent(values[i], value -> new Node());
+        }
+        if (node.children.put(values[values.length - 1], meter) == null) {
+            cached++;
+        }
+        meters.add(meter);
+    }
+
+    private void checkArity(int values) {
+        if (values != tagKeys.length) {
+            throw new IllegalArgumentException(
+                    "expected " + tagKeys.length + " tag values, one for each of the keys, but got " + values);
+        }
+    }
+
+    /**
+     * Children are further nodes, or meters on the last level.
+     */
+    private static final class Node {
+
+        final ConcurrentHashMap<String, Object> children = new ConcurrentHashMap<>();
+
+        @SuppressWarnings("unchecked")
+        <T> T get(String value) {
+            return (T) children.get(value);
+        }
+
+    }
+
+}
@@ -0,0 +1,76 @@
+package io.micrometer.datadog;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * When a registry with {@link DatadogConfig#alignedPublishing()} publishes: every step,
+ * at an offset into the step that is the same for every start of the same instance and
+ * spread evenly across a fleet of instances.
+ * <p>
+ * The offset is a fraction, {@link DatadogConfig#publishJitter()} at most, of the step,
+ * taken from a hash of the host name and process id. Unlike a random offset, restarting
+ * a fleet all at once doesn't change when each instance publishes. It is always at least
+ * {@link #MARGIN_MILLIS}, so that a publish never races step meters rolling over at the
+ * boundary.
+ */
+final class PublishSchedule {
+
+    /**
+     * As Micrometer leaves after the boundary in {@code PushMeterRegistry}.
+     */
+    static final long MARGIN_MILLIS = 2;
+
+    /**
+     * The largest offset into the step Micrometer's own schedule publishes at, as a
+     * fraction of the step, when publishing isn't aligned.
+     */
+    static final double MICROMETER_JITTER = 0.8;
+
+    private PublishSchedule() {
+    }
+
+    /**
+     * @return The offset into each step that this instance publishes at.
+     */
+    static long offsetMillis(long stepMillis, double jitter) {
+        return offsetMillis(stepMillis, jitter, hostName(), ProcessHandle.current().pid());
+    }
+
+    static long offsetMillis(long stepMillis, double jitter, String host, long pid) {
+        long hash = mix(host.hashCode() * 31L + pid);
+        double fraction = (hash >>> 11) * 0x1.0p-53;
+        return Math.min(stepMillis - 1, MARGIN_MILLIS + (long) (fraction * jitter * stepMillis));
+    }
+
+    /**
+     * @return How long from {@code wallTime} until the next publish, at most one step.
+     */
+    static long initialDelayMillis(long wallTime, long stepMillis, long offsetMillis) {
+        long delay = Math.floorMod(offsetMillis - wallTime, stepMillis);
+        return delay == 0 ? stepMillis : delay;
+    }
+
+    /**
+     * The finalizer of SplitMix64, so that hosts named alike end up far apart.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static String hostName() {
+        String host = System.getenv("HOSTNAME");
+        if (host != null) {
+            return host;
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        }
+        catch (UnknownHostException e) {
+            return "";
+        }
+    }
+
+}
@@ -0,0 +1,191 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what {@link DatadogMeterRegistry} does while publishing. Meters named with
+ * {@link #PREFIX} are the registry's own and are left out of every count, so that they
+ * don't feed back into themselves. {@link DatadogPublishStats} reads the counts
+ * directly.
+ */
+final class PublishTelemetry {
+
+    /**
+     * Names of the registry's own meters start with this prefix.
+     */
+    static final String PREFIX = "micrometer.registry.";
+
+    final LongAdder publishes = new LongAdder();
+
+    final LongAdder publishNanos = new LongAdder();
+
+    volatile long lastPublishNanos;
+
+    final LongAdder metersVisited = new LongAdder();
+
+    final LongAdder metersSkipped = new LongAdder();
+
+    final LongAdder countsSent = new LongAdder();
+
+    final LongAdder gaugesSent = new LongAdder();
+
+    final LongAdder distributionsSent = new LongAdder();
+
+    final LongAdder gaugesSuppressed = new LongAdder();
+
+    final LongAdder transportErrors = new LongAdder();
+
+    final LongAdder namingNanos = new LongAdder();
+
+    final LongAdder packetsSpilled = new LongAdder();
+
+    final LongAdder metersRejected = new LongAdder();
+
+    final LongAdder packetsReplayed = new LongAdder();
+
+    final LongAdder spillEvictions = new LongAdder();
+
+    final LongAdder callbacksTimedOut = new LongAdder();
+
+    final LongAdder callbacksFailed = new LongAdder();
+
+    static boolean isInternal(Meter.Id id) {
+        return id.getName().startsWith(PREFIX);
+    }
+
+    void published(long nanos) {
+        publishes.increment();
+        publishNanos.add(nanos);
+        lastPublishNanos = nanos;
+    }
+
+    void visited(StatsdMetric metric) {
+        if (!metric.internal) {
+            metersVisited.increment();
+        }
+    }
+
+    void skipped(long meters) {
+        metersSkipped.add(meters);
+    }
+
+    void sent(StatsdMetric metric) {
+        sent(metric, 1);
+    }
+
+    void sent(StatsdMetric metric, int datapoints) {
+        if (metric.internal) {
+            return;
+        }
+        switch (metric.type) {
+            case COUNTER:
+                countsSent.add(datapoints);
+                break;
+            case LONG_TASK_TIMER:
+            case TIMER:
+            case DISTRIBUTION_SUMMARY:
+                distributionsSent.add(datapoints);
+                break;
+            default:
+                gaugesSent.add(datapoints);
+        }
+    }
+
+    void suppressed(StatsdMetric metric) {
+        if (!metric.internal) {
+            gaugesSuppressed.increment();
+        }
+    }
+
+    void transportError() {
+        transportErrors.increment();
+    }
+
+    void rejected() {
+        metersRejected.increment();
+    }
+
+    void spilled(int evicted) {
+        packetsSpilled.increment();
+        spillEvictions.add(evicted);
+    }
+
+    void replayed(int packets) {
+        packetsReplayed.add(packets);
+    }
+
+    void callbackTimedOut() {
+        callbacksTimedOut.increment();
+    }
+
+    void callbackFailed() {
+        callbacksFailed.increment();
+    }
+
+    void named(long nanos) {
+        namingNanos.add(nanos);
+    }
+
+    DatadogPublishStats snapshot() {
+        return new DatadogPublishStats(this);
+    }
+
+    /**
+     * Registers the counts as meters under {@link #PREFIX}.
+     */
+    void bindTo(MeterRegistry registry) {
+        TimeGauge.builder(PREFIX + "publish.duration", this, TimeUnit.NANOSECONDS, t -> t.lastPublishNanos)
+                .description("Wall time of the last publish")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "publishes", publishes, LongAdder::sum)
+                .description("Publish passes")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "meters.visited", metersVisited, LongAdder::sum)
+                .description("Meters written by publish passes")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "meters.skipped", metersSkipped, LongAdder::sum)
+                .description("Idle or directly sent meters left out of publish passes")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "datapoints", countsSent, LongAdder::sum)
+                .tag("type", "count")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "datapoints", gaugesSent, LongAdder::sum)
+                .tag("type", "gauge")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "datapoints", distributionsSent, LongAdder::sum)
+                .tag("type", "distribution")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "datapoints.suppressed", gaugesSuppressed, LongAdder::sum)
+                .description("Unchanged gauge values that were not sent")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "transport.errors", transportErrors, LongAdder::sum)
+                .description("Errors reported by the Dogstatsd client, such as dropped packets")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "meters.rejected", metersRejected, LongAdder::sum)
+                .description("New meters mapped to an overflow meter by the cardinality limits")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "packets.spilled", packetsSpilled, LongAdder::sum)
+                .description("Packets that could not be sent and were spilled to disk")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "packets.replayed", packetsReplayed, LongAdder::sum)
+                .description("Spilled packets sent later")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "packets.evicted", spillEvictions, LongAdder::sum)
+                .description("Spilled packets dropped to make room for newer ones")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "callbacks.timed.out", callbacksTimedOut, LongAdder::sum)
+                .description("Meter callbacks that ran past the callback timeout")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "callbacks.failed", callbacksFailed, LongAdder::sum)
+                .description("Meter callbacks that threw")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "naming.time", namingNanos, n -> n.sum() / 1e6)
+                .baseUnit("milliseconds")
+                .description("Time spent applying the naming convention")
+                .register(registry);
+    }
+
+}
@@ -0,0 +1,154 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.lang.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Publish tiers with a longer step than the registry's, each taking the meters matched by
+ * its rule. Rules are tried in the order they were added and meters no rule matches stay
+ * on the registry's step.
+ * <p>
+ * A tier's step meters accumulate over the tier's step, and its meters are only
+ * published on the first publish after each of its step boundaries.
+ */
+final class PublishTiers {
+
+    private final List<Tier> tiers;
+
+    private PublishTiers(List<Tier> tiers) {
+        this.tiers = tiers;
+    }
+
+    static PublishTiers none() {
+        return new PublishTiers(new ArrayList<>());
+    }
+
+    boolean isEmpty() {
+        return tiers.isEmpty();
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code step} is not a multiple of
+     * {@code registryStep}.
+     */
+    PublishTiers with(Predicate<Meter.Id> rule, Duration step, Duration registryStep) {
+        if (step.toMillis() < registryStep.toMillis() || step.toMillis() % registryStep.toMillis() != 0) {
+            throw new IllegalArgumentException(
+                    "a publish tier's step must be a multiple of the registry's step of " + registryStep);
+        }
+        List<Tier> tiers = new ArrayList<>(this.tiers);
+        tiers.add(new Tier(rule, step.toMillis(), -1));
+        return new PublishTiers(tiers);
+    }
+
+    /**
+     * @return Tiers of their own for a registry created at {@code wallTime}, which first
+     * publish at the end of the step of each tier they were created in.
+     */
+    PublishTiers start(long wallTime) {
+        List<Tier> tiers = new ArrayList<>(this.tiers.size());
+        for (Tier tier : this.tiers) {
+            tiers.add(new Tier(tier.rule, tier.stepMillis, wallTime / tier.stepMillis));
+        }
+        return new PublishTiers(tiers);
+    }
+
+    boolean matches(Meter.Id id) {
+        return tierOf(id) != null;
+    }
+
+    /**
+     * @return The step of {@code id}'s tier, or {@code registryStepMillis} if it has none.
+     */
+    long stepMillis(Meter.Id id, long registryStepMillis) {
+        Tier tier = tierOf(id);
+        return tier == null ? registryStepMillis : tier.stepMillis;
+    }
+
+    /**
+     * @return {@code true} if {@code meter} belongs to a tier.
+     */
+    boolean added(Meter meter) {
+        Tier tier = tierOf(meter.getId());
+        if (tier == null) {
+            return false;
+        }
+        tier.meters.add(meter);
+        return true;
+    }
+
+    /**
+     * @return {@code true} if {@code meter} belonged to a tier.
+     */
+    boolean removed(Meter meter) {
+        for (Tier tier : tiers) {
+            if (tier.meters.remove(meter)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean contains(Meter meter) {
+        for (Tier tier : tiers) {
+            if (tier.meters.contains(meter)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the meters of every tier that has completed a step since it was last
+     * published, or of every tier if {@code all}.
+     */
+    void addDue(Collection<Meter> meters, long wallTime, boolean all) {
+        for (Tier tier : tiers) {
+            long step = wallTime / tier.stepMillis;
+            if (all || step > tier.lastPublishedStep) {
+                tier.lastPublishedStep = step;
+                meters.addAll(tier.meters);
+            }
+        }
+    }
+
+    @Nullable
+    private Tier tierOf(Meter.Id id) {
+        for (Tier tier : tiers) {
+            if (tier.rule.test(id)) {
+                return tier;
+            }
+        }
+        return null;
+    }
+
+    private static final class Tier {
+
+        final Predicate<Meter.Id> rule;
+
+        final long stepMillis;
+
+        final Set<Meter> meters = ConcurrentHashMap.newKeySet();
+
+        /**
+         * Only touched by the publishing thread.
+         */
+        long lastPublishedStep;
+
+        Tier(Predicate<Meter.Id> rule, long stepMillis, long lastPublishedStep) {
+            this.rule = rule;
+            this.stepMillis = stepMillis;
+            this.lastPublishedStep = lastPublishedStep;
+        }
+
+    }
+
+}
@@ -0,0 +1,11 @@
+package io.micrometer.datadog;
+
+/**
+ * A timer or distribution summary that keeps the distribution of each step in a
+ * {@link StepSketch}, from which its percentiles and SLO bucket counts are published.
+ */
+interface SketchedMeter {
+
+    StepSketch sketch();
+
+}
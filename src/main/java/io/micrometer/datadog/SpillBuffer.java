@@ -0,0 +1,219 @@
+package io.micrometer.datadog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A bounded, memory-mapped ring of DogStatsD packets that could not be sent, kept for
+ * {@link #replay replaying} once the server takes packets again.
+ * <p>
+ * Lines are stamped with the time they should have been sent ({@code |T<seconds>},
+ * DogStatsD protocol v1.3) as they are spilled. Only counts and gauges can carry a
+ * timestamp, so distribution lines are dropped. When the ring is full, the oldest packets
+ * are evicted. Head and tail offsets live in the file header, so spilled packets survive
+ * a restart, unless the file is reopened with a smaller capacity or packet size than it
+ * was written with.
+ */
+final class SpillBuffer implements Closeable {
+
+    private static final int MAGIC = 0x44445350; // DDSP
+
+    private static final int HEADER_BYTES = 32;
+
+    private static final int CAPACITY_OFFSET = 4;
+
+    private static final int HEAD_OFFSET = 8;
+
+    private static final int TAIL_OFFSET = 16;
+
+    private static final int MAX_PACKET_SIZE_OFFSET = 24;
+
+    private final FileChannel file;
+
+    private final MappedByteBuffer map;
+
+    private final int capacity;
+
+    private final int maxPacketSizeBytes;
+
+    private final ByteBuffer record;
+
+    /**
+     * Absolute offsets of the oldest and past the newest packet, in bytes ever written.
+     */
+    private long head;
+
+    private long tail;
+
+    SpillBuffer(Path path, int capacity, int maxPacketSizeBytes) throws IOException {
+        this.file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.map = file.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) capacity);
+        this.capacity = capacity;
+        this.maxPacketSizeBytes = maxPacketSizeBytes;
+        this.record = ByteBuffer.allocate(maxPacketSizeBytes);
+
+        if (map.getInt(0) == MAGIC && map.getInt(CAPACITY_OFFSET) == capacity
+                && map.getInt(MAX_PACKET_SIZE_OFFSET) <= maxPacketSizeBytes) {
+            this.head = map.getLong(HEAD_OFFSET);
+            this.tail = map.getLong(TAIL_OFFSET);
+        }
+        else {
+            // new, or sized differently before, or holding packets too large to send now
+            map.putInt(0, MAGIC);
+            map.putInt(CAPACITY_OFFSET, capacity);
+            writeOffsets();
+        }
+        map.putInt(MAX_PACKET_SIZE_OFFSET, maxPacketSizeBytes);
+    }
+
+    /**
+     * Spills the lines of {@code packet}, from its position to its limit, stamped with
+     * {@code timestampSeconds}.
+     * @return The number of older packets evicted to make room.
+     */
+    synchronized int append(ByteBuffer packet, long timestampSeconds) {
+        byte[] stamp = ("|T" + timestampSeconds).getBytes(StandardCharsets.US_ASCII);
+        record.clear();
+        int evicted = 0;
+        int lineStart = packet.position();
+        for (int i = packet.position(); i < packet.limit(); i++) {
+            if (packet.get(i) != '\n') {
+                continue;
+            }
+            int lineEnd = i;
+            if (isTimestampable(packet, lineStart, lineEnd)) {
+                int lineBytes = lineEnd - lineStart + stamp.length + 1;
+                if (record.remaining() < lineBytes) {
+                    evicted += flushRecord();
+                }
+                if (record.remaining() >= lineBytes) {
+                    for (int j = lineStart; j < lineEnd; j++) {
+                        record.put(packet.get(j));
+                    }
+                    record.put(stamp).put((byte) '\n');
+                }
+            }
+            lineStart = i + 1;
+        }
+        return evicted + flushRecord();
+    }
+
+    /**
+     * Sends the oldest packets, up to {@code maxBytes} of them, and stops at the first
+     * one {@code sender} fails to send.
+     * @return The number of packets sent.
+     */
+    synchronized int replay(PacketSender sender, int maxBytes) {
+        int sent = 0;
+        int bytes = 0;
+        while (head < tail) {
+            int length = getInt(head);
+            if (bytes > 0 && bytes + length > maxBytes) {
+                break;
+            }
+            record.clear();
+            for (int i = 0; i < length; i++) {
+                record.put(map.get(position(head + 4 + i)));
+            }
+            record.flip();
+            if (!sender.send(record)) {
+                break;
+            }
+            head += 4 + length;
+            bytes += length;
+            sent++;
+        }
+        writeOffsets();
+        return sent;
+    }
+
+    synchronized long sizeBytes() {
+        return tail - head;
+    }
+
+    @Override
+    public void close() throws IOException {
+        map.force();
+        file.close();
+    }
+
+    /**
+     * A line ({@code name:value|type...}) can be timestamped if it is a count or a gauge.
+     */
+    private static boolean isTimestampable(ByteBuffer packet, int lineStart, int lineEnd) {
+        for (int i = lineStart; i < lineEnd - 1; i++) {
+            if (packet.get(i) == '|') {
+                byte type = packet.get(i + 1);
+                return (type == 'c' || type == 'g') && (i + 2 == lineEnd || packet.get(i + 2) == '|');
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The number of packets evicted to make room for the record.
+     */
+    private int flushRecord() {
+        record.flip();
+        int evicted = 0;
+        int length = record.remaining();
+        if (length > 0 && 4 + length <= capacity) {
+            while (tail - head + 4 + length > capacity) {
+                head += 4 + getInt(head);
+                evicted++;
+            }
+            putInt(tail, length);
+            for (int i = 0; i < length; i++) {
+                map.put(position(tail + 4 + i), record.get());
+            }
+            tail += 4 + length;
+            writeOffsets();
+        }
+        record.clear();
+        return evicted;
+    }
+
+    private int getInt(long offset) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (map.get(position(offset + i)) & 0xff);
+        }
+        return value;
+    }
+
+    private void putInt(long offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            map.put(position(offset + i), (byte) (value >>> (24 - 8 * i)));
+        }
+    }
+
+    private int position(long offset) {
+        return HEADER_BYTES + (int) (offset % capacity);
+    }
+
+    private void writeOffsets() {
+        map.putLong(HEAD_OFFSET, head);
+        map.putLong(TAIL_OFFSET, tail);
+    }
+
+    /**
+     * Sends one packet.
+     */
+    @FunctionalInterface
+    interface PacketSender {
+
+        /**
+         * @return {@code false} if the packet could not be sent.
+         */
+        boolean send(ByteBuffer packet);
+
+    }
+
+}
@@ -0,0 +1,47 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.lang.Nullable;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Where the Dogstatsd client sends to, as parsed from {@link DatadogConfig#statsdAddress()}:
+ * {@code unix:///path/to/dsd.socket}, {@code udp://host:port} or just {@code host:port}.
+ * A Unix domain socket is given to the client as its path with port {@code 0}.
+ */
+final class StatsdAddress {
+
+    final String host;
+
+    final int port;
+
+    private StatsdAddress(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * @return The address, or {@code null} if {@code address} is malformed.
+     */
+    @Nullable
+    static StatsdAddress parse(String address) {
+        URI uri;
+        try {
+            uri = new URI(address.contains("://") ? address : "udp://" + address);
+        }
+        catch (URISyntaxException e) {
+            return null;
+        }
+
+        if ("unix".equals(uri.getScheme())) {
+            String path = uri.getPath();
+            return path == null || path.isEmpty() ? null : new StatsdAddress(path, 0);
+        }
+        if ("udp".equals(uri.getScheme()) && uri.getHost() != null && uri.getPort() > 0) {
+            return new StatsdAddress(uri.getHost(), uri.getPort());
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,55 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.config.NamingConvention;
+import io.micrometer.core.lang.Nullable;
+
+/**
+ * A single DogStatsD series: the metric name and tags of a meter, or of one of its
+ * statistics, after the registry's {@link NamingConvention} has been applied.
+ */
+final class StatsdMetric {
+
+    final String name;
+
+    final String[] tags;
+
+    final Meter.Type type;
+
+    /**
+     * The naming convention {@link #name} and {@link #tags} were resolved with.
+     */
+    final NamingConvention namingConvention;
+
+    /**
+     * Whether this series belongs to one of the registry's own telemetry meters.
+     */
+    final boolean internal;
+
+    /**
+     * Gauge change suppression state, only touched by the thread publishing this series.
+     */
+    boolean sent;
+
+    double lastSentValue;
+
+    int unsentSteps;
+
+    /**
+     * UTF-8 name and tags for {@link StatsdWireSender}, encoded on first use.
+     */
+    @Nullable
+    volatile byte[] wireName;
+
+    @Nullable
+    volatile byte[] wireTags;
+
+    StatsdMetric(String name, String[] tags, Meter.Type type, NamingConvention namingConvention, boolean internal) {
+        this.name = name;
+        this.tags = tags;
+        this.type = type;
+        this.namingConvention = namingConvention;
+        this.internal = internal;
+    }
+
+}
@@ -0,0 +1,109 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.config.NamingConvention;
+import io.micrometer.core.lang.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Caches the {@link StatsdMetric}s of every registered meter, so that a steady-state
+ * publish does not run the naming convention or rebuild tag arrays.
+ * <p>
+ * Entries are keyed by {@link Meter.Id} and hold one slot for the id itself plus one slot
+ * per {@link Statistic}, for meters whose measurements are published with a
+ * {@code statistic} tag. Entries are only created for registered meters, by
+ * {@link #fill(Meter)}, so that a meter visited by a publish just after its removal isn't
+ * cached again. Series resolved with a naming convention the registry no longer uses are
+ * resolved again on their next lookup.
+ */
+final class StatsdMetricCache {
+
+    private static final Statistic[] STATISTICS = Statistic.values();
+
+    private final ConcurrentMap<Meter.Id, StatsdMetric[]> metrics = new ConcurrentHashMap<>();
+
+    private final Function<Meter.Id, StatsdMetric> resolver;
+
+    private final Supplier<NamingConvention> namingConvention;
+
+    /**
+     * @param resolver Turns a (possibly {@code statistic}-tagged) id into its series.
+     * @param namingConvention The registry's current naming convention.
+     */
+    StatsdMetricCache(Function<Meter.Id, StatsdMetric> resolver, Supplier<NamingConvention> namingConvention) {
+        this.resolver = resolver;
+        this.namingConvention = namingConvention;
+    }
+
+    /**
+     * Resolves every series a freshly registered meter is going to publish. Measurements
+     * are listed but not evaluated, so no gauge function is called.
+     */
+    void fill(Meter meter) {
+        Meter.Id id = meter.getId();
+        add(id);
+        if (meter instanceof SketchedMeter) {
+            StepSketch sketch = ((SketchedMeter) meter).sketch();
+            for (Meter.Id percentileId : sketch.percentileIds) {
+                add(percentileId);
+                get(percentileId, null);
+            }
+            for (Meter.Id bucketId : sketch.bucketIds) {
+                add(bucketId);
+                get(bucketId, null);
+            }
+        }
+        if (meter instanceof Timer || meter instanceof DistributionSummary || meter instanceof FunctionTimer) {
+            get(id, null);
+            return;
+        }
+        for (Measurement measurement : meter.measure()) {
+            get(id, measurement.getStatistic());
+        }
+    }
+
+    private void add(Meter.Id id) {
+        metrics.computeIfAbsent(id, k -> new StatsdMetric[STATISTICS.length + 1]);
+    }
+
+    /**
+     * @param id The meter's id.
+     * @param statistic The statistic tag to add to the id, or {@code null} for the id
+     * itself.
+     * @return The series, resolved with the current naming convention, and only cached if
+     * {@code id} is that of a registered meter.
+     */
+    StatsdMetric get(Meter.Id id, @Nullable Statistic statistic) {
+        NamingConvention convention = namingConvention.get();
+        StatsdMetric[] slots = metrics.get(id);
+        if (slots == null) {
+            // not registered yet, or removed already
+            return resolver.apply(statistic == null ? id : id.withTag(statistic));
+        }
+        int slot = statistic == null ? 0 : statistic.ordinal() + 1;
+        StatsdMetric metric = slots[slot];
+        if (metric == null || metric.namingConvention != convention) {
+            // racing resolutions produce equal series, so last write wins
+            metric = resolver.apply(statistic == null ? id : id.withTag(statistic));
+            slots[slot] = metric;
+        }
+        return metric;
+    }
+
+    /**
+     * @return {@code true} if {@code metric} was resolved with a naming convention the
+     * registry no longer uses.
+     */
+    boolean isStale(StatsdMetric metric) {
+        return metric.namingConvention != namingConvention.get();
+    }
+
+    void remove(Meter.Id id) {
+        metrics.remove(id);
+    }
+
+}
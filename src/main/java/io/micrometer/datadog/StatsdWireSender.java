@@ -0,0 +1,384 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Measurement;
+import io.micrometer.core.lang.Nullable;
+import jnr.unixsocket.UnixDatagramChannel;
+import jnr.unixsocket.UnixSocketAddress;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.StringJoiner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Function;
+
+/**
+ * Writes DogStatsD lines, {@code name:value|type|#tags}, straight into pooled direct
+ * buffers and sends them as UDP or Unix domain socket datagrams, bypassing the Dogstatsd
+ * client's string formatting.
+ * <p>
+ * Names and tags are encoded to UTF-8 once per {@link StatsdMetric} and values are
+ * formatted in place, so that writing a value allocates nothing. Each publishing thread
+ * fills a buffer of its own, which is sent whenever the next line does not fit and on
+ * {@link #flush()}.
+ */
+final class StatsdWireSender implements Closeable {
+
+    static final byte[] COUNT = "|c".getBytes(StandardCharsets.UTF_8);
+
+    static final byte[] GAUGE = "|g".getBytes(StandardCharsets.UTF_8);
+
+    static final byte[] DISTRIBUTION = "|d".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * The client's default packet sizes, used when none is configured.
+     */
+    static final int DEFAULT_UDP_PACKET_SIZE_BYTES = 1432;
+
+    static final int DEFAULT_UDS_PACKET_SIZE_BYTES = 8192;
+
+    /**
+     * Longest value {@link #putDouble} writes: a sign, 19 digits, a point and 6 fraction
+     * digits, or a {@link Double#toString(double)} beyond that.
+     */
+    private static final int MAX_VALUE_BYTES = 27;
+
+    private static final String[] UNIFIED_SERVICE_TAGS = { "service", "env", "version" };
+
+    private static final long[] POWERS_OF_TEN = { 1L, 10L, 100L, 1_000L, 10_000L, 100_000L };
+
+    private final DatagramChannel channel;
+
+    private final SocketAddress address;
+
+    private final int maxPacketSizeBytes;
+
+    private final byte[] prefix;
+
+    private final String constantTags;
+
+    private final ArrayBlockingQueue<ByteBuffer> pool;
+
+    private final ThreadLocal<Packet> packets = ThreadLocal.withInitial(Packet::new);
+
+    private final Clock clock;
+
+    private final PublishTelemetry telemetry;
+
+    /**
+     * Only set when packets that could not be sent are spilled to disk.
+     */
+    @Nullable
+    private final SpillBuffer spill;
+
+    private final int spillReplayBytes;
+
+    /**
+     * Sends to {@link DatadogConfig#statsdAddress()}, or else the {@code DD_AGENT_HOST}
+     * and {@code DD_DOGSTATSD_PORT} environment variables, and then
+     * {@code localhost:8125}.
+     * @param prefix Prepended to metric names, as the client does with
+     * {@link DatadogConfig#prefix()}.
+     */
+    StatsdWireSender(DatadogConfig config, Clock clock, PublishTelemetry telemetry, String prefix) throws IOException {
+        StatsdAddress address = config.statsdAddress() == null ? null : StatsdAddress.parse(config.statsdAddress());
+        if (address == null) {
+            String host = System.getenv("DD_AGENT_HOST");
+            String port = System.getenv("DD_DOGSTATSD_PORT");
+            address = StatsdAddress.parse((host == null ? "localhost" : host) + ":" + (port == null ? "8125" : port));
+        }
+
+        int maxPacketSizeBytes = config.maxPacketSizeBytes();
+        if (address != null && address.port == 0) {
+            this.channel = UnixDatagramChannel.open();
+            this.address = new UnixSocketAddress(new File(address.host));
+            this.maxPacketSizeBytes = maxPacketSizeBytes == -1 ? DEFAULT_UDS_PACKET_SIZE_BYTES : maxPacketSizeBytes;
+        }
+        else {
+            this.channel = DatagramChannel.open();
+            this.address = address == null ? new InetSocketAddress("localhost", 8125)
+                    : new InetSocketAddress(address.host, address.port);
+            this.maxPacketSizeBytes = maxPacketSizeBytes == -1 ? DEFAULT_UDP_PACKET_SIZE_BYTES : maxPacketSizeBytes;
+        }
+
+        this.prefix = prefix.isEmpty() ? new byte[0] : (prefix + ".").getBytes(StandardCharsets.UTF_8);
+        this.constantTags = constantTags(System::getenv);
+        this.pool = new ArrayBlockingQueue<>(config.bufferPoolSize() == -1 ? 512 : config.bufferPoolSize());
+        this.clock = clock;
+        this.telemetry = telemetry;
+
+        String spillFile = config.spillFile();
+        if (spillFile != null) {
+            this.spill = new SpillBuffer(Paths.get(spillFile), config.spillMaxBytes(), this.maxPacketSizeBytes);
+            // a full socket should spill rather than hold up the publish
+            channel.configureBlocking(false);
+        }
+        else {
+            this.spill = null;
+        }
+        this.spillReplayBytes = config.spillReplayBytes();
+    }
+
+    /**
+     * @param env Looks up an environment variable.
+     * @return The tags the client adds to every line: the entity id, and unified service
+     * tagging's {@code service}, {@code env} and {@code version}, in the client's order.
+     */
+    static String constantTags(Function<String, String> env) {
+        StringJoiner tags = new StringJoiner(",");
+        String entityId = env.apply("DD_ENTITY_ID");
+        if (entityId != null && !entityId.trim().isEmpty()) {
+            tags.add("dd.internal.entity_id:" + entityId);
+        }
+        for (String tag : UNIFIED_SERVICE_TAGS) {
+            String value = env.apply("DD_" + tag.toUpperCase(Locale.ROOT));
+            if (value != null && !value.trim().isEmpty()) {
+                tags.add(tag + ":" + value);
+            }
+        }
+        return tags.toString();
+    }
+
+    /**
+     * Writes one line of {@code metric}, of {@code type} {@link #COUNT}, {@link #GAUGE} or
+     * {@link #DISTRIBUTION}. Values that aren't finite are not sent.
+     * @return {@code false} if the value was not sent.
+     */
+    boolean write(StatsdMetric metric, byte[] type, double value) {
+        if (!Double.isFinite(value)) {
+            return false;
+        }
+        Packet packet = packets.get();
+        byte[] name = name(metric);
+        byte[] tags = tags(metric);
+        int lineBytes = name.length + 1 + MAX_VALUE_BYTES + type.length + tags.length + 1;
+        if (lineBytes > maxPacketSizeBytes) {
+            telemetry.transportError();
+            return false;
+        }
+
+        ByteBuffer buffer = packet.reserve(lineBytes);
+        buffer.put(name).put((byte) ':');
+        putDouble(buffer, value);
+        buffer.put(type).put(tags).put((byte) '\n');
+        return true;
+    }
+
+    /**
+     * Writes the values of {@code measurements} as multi-value lines of {@code metric},
+     * DogStatsD protocol v1.1, as few as fit into the packet size.
+     * @return The number of values sent.
+     */
+    int writePacked(StatsdMetric metric, byte[] type, Iterable<Measurement> measurements) {
+        Packet packet = packets.get();
+        byte[] name = name(metric);
+        byte[] tags = tags(metric);
+        int suffixBytes = type.length + tags.length + 1;
+        if (name.length + 1 + MAX_VALUE_BYTES + suffixBytes > maxPacketSizeBytes) {
+            telemetry.transportError();
+            return 0;
+        }
+
+        int sent = 0;
+        boolean lineOpen = false;
+        for (Measurement measurement : measurements) {
+            double value = measurement.getValue();
+            if (!Double.isFinite(value)) {
+                continue;
+            }
+            ByteBuffer buffer = packet.buffer;
+            if (lineOpen && buffer.remaining() < 1 + MAX_VALUE_BYTES + suffixBytes) {
+                buffer.put(type).put(tags).put((byte) '\n');
+                lineOpen = false;
+            }
+            if (!lineOpen) {
+                buffer = packet.reserve(name.length + 1 + MAX_VALUE_BYTES + suffixBytes);
+                buffer.put(name);
+                lineOpen = true;
+            }
+            buffer.put((byte) ':');
+            putDouble(buffer, value);
+            sent++;
+        }
+        if (lineOpen) {
+            packet.buffer.put(type).put(tags).put((byte) '\n');
+        }
+        return sent;
+    }
+
+    /**
+     * Sends whatever the calling thread has written so far.
+     */
+    void flush() {
+        Packet packet = packets.get();
+        if (packet.buffer != null) {
+            packet.send();
+            pool.offer(packet.buffer);
+            packet.buffer = null;
+        }
+    }
+
+    /**
+     * Resends spilled packets, up to {@link DatadogConfig#spillReplayBytes()} of them, so
+     * that a backlog never holds up live publishing for long.
+     */
+    void replaySpill() {
+        if (spill != null && spill.sizeBytes() > 0) {
+            telemetry.replayed(spill.replay(this::trySend, spillReplayBytes));
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+            if (spill != null) {
+                spill.close();
+            }
+        }
+        catch (IOException ignored) {
+            // nothing left to send
+        }
+    }
+
+    /**
+     * @return {@code false} if {@code packet} could not be sent right away.
+     */
+    private boolean trySend(ByteBuffer packet) {
+        try {
+            // a datagram goes out whole or not at all
+            return channel.send(packet, address) > 0;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    private byte[] name(StatsdMetric metric) {
+        byte[] name = metric.wireName;
+        if (name == null) {
+            // racing threads encode equal bytes
+            byte[] encoded = metric.name.getBytes(StandardCharsets.UTF_8);
+            name = new byte[prefix.length + encoded.length];
+            System.arraycopy(prefix, 0, name, 0, prefix.length);
+            System.arraycopy(encoded, 0, name, prefix.length, encoded.length);
+            metric.wireName = name;
+        }
+        return name;
+    }
+
+    private byte[] tags(StatsdMetric metric) {
+        byte[] tags = metric.wireTags;
+        if (tags == null) {
+            StringBuilder joined = new StringBuilder();
+            for (String tag : metric.tags) {
+                joined.append(joined.length() == 0 ? "|#" : ",").append(tag);
+            }
+            if (!constantTags.isEmpty()) {
+                joined.append(joined.length() == 0 ? "|#" : ",").append(constantTags);
+            }
+            tags = joined.toString().getBytes(StandardCharsets.UTF_8);
+            metric.wireTags = tags;
+        }
+        return tags;
+    }
+
+    /**
+     * Writes {@code value} the way the client does, with up to 6 fraction digits and no
+     * trailing zeros.
+     */
+    static void putDouble(ByteBuffer buffer, double value) {
+        double abs = Math.abs(value);
+        if (abs >= 9e18) {
+            buffer.put(Double.toString(value).getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        long integer = (long) abs;
+        // exact, so only the rounding to 6 digits is lost
+        long fraction = Math.round((abs - integer) * 1_000_000);
+        if (fraction == 1_000_000) {
+            integer++;
+            fraction = 0;
+        }
+        if (value < 0 && (integer != 0 || fraction != 0)) {
+            buffer.put((byte) '-');
+        }
+        putLong(buffer, integer);
+        if (fraction != 0) {
+            int digits = 6;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                digits--;
+            }
+            buffer.put((byte) '.');
+            for (int i = digits - 1; i > 0 && fraction < POWERS_OF_TEN[i]; i--) {
+                buffer.put((byte) '0');
+            }
+            putLong(buffer, fraction);
+        }
+    }
+
+    private static void putLong(ByteBuffer buffer, long value) {
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = buffer.position() + digits;
+        for (int i = end - 1; i >= buffer.position(); i--) {
+            buffer.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.position(end);
+    }
+
+    /**
+     * The buffer a thread is currently filling.
+     */
+    private final class Packet {
+
+        @Nullable
+        ByteBuffer buffer;
+
+        /**
+         * @return A buffer with at least {@code bytes} remaining, sending the current one
+         * first if it is too full.
+         */
+        ByteBuffer reserve(int bytes) {
+            if (buffer != null && buffer.remaining() < bytes) {
+                send();
+            }
+            if (buffer == null) {
+                buffer = pool.poll();
+                if (buffer == null) {
+                    buffer = ByteBuffer.allocateDirect(maxPacketSizeBytes);
+                }
+            }
+            return buffer;
+        }
+
+        void send() {
+            ByteBuffer buffer = this.buffer;
+            if (buffer.position() > 0) {
+                buffer.flip();
+                if (!trySend(buffer)) {
+                    telemetry.transportError();
+                    if (spill != null) {
+                        buffer.rewind();
+                        telemetry.spilled(spill.append(buffer, clock.wallTime() / 1000));
+                    }
+                }
+            }
+            buffer.clear();
+        }
+
+    }
+
+}
@@ -0,0 +1,460 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.distribution.CountAtBucket;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.util.DoubleFormat;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The distribution of the values a timer or distribution summary records in a step, kept
+ * as a DDSketch with the relative accuracy of the Agent's: a value lands in bin
+ * {@code ceil(log(value) / log(gamma))}, and every value of a bin is within
+ * {@link #RELATIVE_ACCURACY} of the bin's representative value. Values of zero or less,
+ * and infinite ones, are only counted, the latter above every bin.
+ * <p>
+ * Recording takes no locks. Values are counted in one of a few stripes picked by thread,
+ * each a dense window of at most {@link #MAX_BINS} bins that grows as values outside of
+ * it arrive. Once a window is as wide as it may get, the lowest bins are collapsed into
+ * one, which keeps the higher percentiles accurate. Stripes are only allocated once
+ * recorded to, and then kept from step to step, so that a meter holds at most
+ * {@code 8 * MAX_BINS} ints of bins, and the previous step's snapshot.
+ * <p>
+ * Once per step, the first read drains every stripe in place into a {@link Snapshot}.
+ * The step's count, total, max, percentiles and SLO bucket counts all come from that one
+ * snapshot. A recording that races with the drain is counted in that step or the next.
+ */
+final class StepSketch {
+
+    /**
+     * That of the Agent's sketches.
+     */
+    static final double RELATIVE_ACCURACY = 1.0 / 128;
+
+    static final int MAX_BINS = 2048;
+
+    private static final double GAMMA = 1 + 2 * RELATIVE_ACCURACY;
+
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    /**
+     * Room left on either side of a window when it grows, so that it doesn't grow again
+     * for the next few values.
+     */
+    private static final int GROWTH_SLACK = 32;
+
+    private static final int STRIPES = Integer.highestOneBit(Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+    private final Clock clock;
+
+    private final long stepMillis;
+
+    private final AtomicReferenceArray<Bins> stripes = new AtomicReferenceArray<>(STRIPES);
+
+    private final LongAdder count = new LongAdder();
+
+    private final DoubleAdder total = new DoubleAdder();
+
+    private final LongAdder zeroCount = new LongAdder();
+
+    private final LongAdder infiniteCount = new LongAdder();
+
+    private final AtomicLong maxBits = new AtomicLong(Double.doubleToLongBits(0));
+
+    private volatile long lastStep;
+
+    private volatile Snapshot previous = Snapshot.EMPTY;
+
+    /**
+     * Percentiles and SLO boundaries, in the unit values are recorded in, and the ids they
+     * are published under.
+     */
+    final double[] percentiles;
+
+    final Meter.Id[] percentileIds;
+
+    final double[] buckets;
+
+    final Meter.Id[] bucketIds;
+
+    /**
+     * Recorded values per unit of the meter's base unit.
+     */
+    final double unitScale;
+
+    StepSketch(Meter.Id id, Clock clock, long stepMillis, DistributionStatisticConfig distributionStatisticConfig,
+            double unitScale) {
+        this.clock = clock;
+        this.stepMillis = stepMillis;
+        this.lastStep = clock.wallTime() / stepMillis;
+        this.unitScale = unitScale;
+
+        double[] percentiles = distributionStatisticConfig.getPercentiles();
+        this.percentiles = percentiles == null ? new double[0] : percentiles.clone();
+        this.percentileIds = new Meter.Id[this.percentiles.length];
+        for (int i = 0; i < this.percentiles.length; i++) {
+            percentileIds[i] = derivedId(id, ".percentile", Meter.Type.GAUGE,
+                    Tag.of("phi", DoubleFormat.decimalOrNan(this.percentiles[i])));
+        }
+
+        double[] buckets = distributionStatisticConfig.getServiceLevelObjectiveBoundaries();
+        this.buckets = buckets == null ? new double[0] : buckets.clone();
+        this.bucketIds = new Meter.Id[this.buckets.length];
+        for (int i = 0; i < this.buckets.length; i++) {
+            bucketIds[i] = derivedId(id, ".histogram", Meter.Type.COUNTER,
+                    Tag.of("le", DoubleFormat.wholeOrDecimal(this.buckets[i] / unitScale)));
+        }
+    }
+
+    /**
+     * @return {@code true} if a meter with {@code distributionStatisticConfig} has
+     * percentiles or SLO bucket counts for a sketch to publish.
+     */
+    static boolean isWanted(DistributionStatisticConfig distributionStatisticConfig) {
+        double[] slos = distributionStatisticConfig.getServiceLevelObjectiveBoundaries();
+        return distributionStatisticConfig.isPublishingPercentiles() || (slos != null && slos.length > 0);
+    }
+
+    private static Meter.Id derivedId(Meter.Id id, String suffix, Meter.Type type, Tag tag) {
+        return new Meter.Id(id.getName() + suffix, Tags.concat(id.getTagsAsIterable(), Tags.of(tag)), id.getBaseUnit(),
+                id.getDescription(), type);
+    }
+
+    void record(double value) {
+        count.increment();
+        total.add(value);
+        long bits;
+        while (Double.longBitsToDouble(bits = maxBits.get()) < value) {
+            if (maxBits.compareAndSet(bits, Double.doubleToLongBits(value))) {
+                break;
+            }
+        }
+
+        if (!(value > 0)) {
+            zeroCount.increment();
+            return;
+        }
+        if (value == Double.POSITIVE_INFINITY) {
+            // has no bin, and would have the window grow forever to find one
+            infiniteCount.increment();
+            return;
+        }
+        add(stripe(), index(value), 1);
+    }
+
+    /**
+     * @return The distribution of the previous step.
+     */
+    Snapshot snapshot() {
+        long step = clock.wallTime() / stepMillis;
+        if (step > lastStep) {
+            roll(step);
+        }
+        return previous;
+    }
+
+    /**
+     * @return Count, total and max of the previous step, like the meter's own, but
+     * percentiles and bucket counts of the previous step and the current one so far,
+     * like Micrometer's time window histograms.
+     */
+    HistogramSnapshot histogramSnapshot() {
+        Snapshot step = snapshot();
+        Snapshot window = window(step);
+        ValueAtPercentile[] values = new ValueAtPercentile[percentiles.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new ValueAtPercentile(percentiles[i], window.valueAtQuantile(percentiles[i]));
+        }
+        CountAtBucket[] counts = new CountAtBucket[buckets.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new CountAtBucket(buckets[i], window.countAtOrBelow(buckets[i]));
+        }
+        return new HistogramSnapshot(step.count, step.total, step.max, values, counts, null);
+    }
+
+    /**
+     * @return {@code previous} merged with what the current step has so far, which is
+     * left as it is.
+     */
+    private Snapshot window(Snapshot previous) {
+        int lowest = previous.counts.length == 0 ? Integer.MAX_VALUE : previous.offset;
+        int highest = previous.counts.length == 0 ? Integer.MIN_VALUE : previous.offset + previous.counts.length - 1;
+        Bins[] current = new Bins[STRIPES];
+        for (int s = 0; s < STRIPES; s++) {
+            Bins bins = stripes.get(s);
+            if (bins != null) {
+                current[s] = bins;
+                lowest = Math.min(lowest, bins.offset);
+                highest = Math.max(highest, bins.offset + bins.counts.length() - 1);
+            }
+        }
+
+        double max = Math.max(previous.max, Double.longBitsToDouble(maxBits.get()));
+        long zeroCount = previous.zeroCount + this.zeroCount.sum();
+        long infiniteCount = previous.infiniteCount + this.infiniteCount.sum();
+        if (lowest == Integer.MAX_VALUE) {
+            return new Snapshot(0, 0, max, zeroCount, infiniteCount, 0, new long[0]);
+        }
+
+        lowest = Math.max(lowest, highest - MAX_BINS + 1);
+        long[] counts = new long[highest - lowest + 1];
+        for (int i = 0; i < previous.counts.length; i++) {
+            counts[Math.max(previous.offset + i, lowest) - lowest] += previous.counts[i];
+        }
+        for (Bins bins : current) {
+            if (bins == null) {
+                continue;
+            }
+            for (int slot = 0; slot < bins.counts.length(); slot++) {
+                counts[Math.max(bins.offset + slot, lowest) - lowest] += bins.counts.get(slot);
+            }
+        }
+        return new Snapshot(0, 0, max, zeroCount, infiniteCount, lowest, counts);
+    }
+
+    private synchronized void roll(long step) {
+        if (step <= lastStep) {
+            return;
+        }
+        Snapshot snapshot = drain();
+        // what was recorded belongs to a step before the previous one
+        previous = step == lastStep + 1 ? snapshot : Snapshot.EMPTY;
+        lastStep = step;
+    }
+
+    private Snapshot drain() {
+        Bins[] drained = new Bins[STRIPES];
+        int lowest = Integer.MAX_VALUE;
+        int highest = Integer.MIN_VALUE;
+        for (int s = 0; s < STRIPES; s++) {
+            // only grows while the sketch is locked, as it is here
+            Bins bins = stripes.get(s);
+            if (bins != null) {
+                drained[s] = bins;
+                lowest = Math.min(lowest, bins.offset);
+                highest = Math.max(highest, bins.offset + bins.counts.length() - 1);
+            }
+        }
+
+        long count = this.count.sumThenReset();
+        double total = this.total.sumThenReset();
+        double max = Double.longBitsToDouble(maxBits.getAndSet(Double.doubleToLongBits(0)));
+        long zeroCount = this.zeroCount.sumThenReset();
+        long infiniteCount = this.infiniteCount.sumThenReset();
+        if (lowest == Integer.MAX_VALUE) {
+            return new Snapshot(count, total, max, zeroCount, infiniteCount, 0, new long[0]);
+        }
+
+        lowest = Math.max(lowest, highest - MAX_BINS + 1);
+        long[] counts = new long[highest - lowest + 1];
+        for (Bins bins : drained) {
+            if (bins == null) {
+                continue;
+            }
+            for (int slot = 0; slot < bins.counts.length(); slot++) {
+                int n = bins.counts.getAndSet(slot, 0);
+                if (n > 0) {
+                    counts[Math.max(bins.offset + slot, lowest) - lowest] += n;
+                }
+            }
+        }
+        return new Snapshot(count, total, max, zeroCount, infiniteCount, lowest, counts);
+    }
+
+    private void add(int stripe, int index, int n) {
+        Bins bins = stripes.get(stripe);
+        int slot;
+        while (bins == null || (slot = bins.slot(index)) < 0) {
+            bins = grow(stripe, index);
+        }
+        bins.counts.addAndGet(slot, n);
+        if (stripes.get(stripe) != bins) {
+            // grown while adding, and maybe copied already: move what is left over, which
+            // only this thread or the one growing moves, each count exactly once
+            int left = bins.counts.getAndSet(slot, 0);
+            if (left > 0) {
+                add(stripe, bins.offset + slot, left);
+            }
+        }
+    }
+
+    private synchronized Bins grow(int stripe, int index) {
+        Bins bins = stripes.get(stripe);
+        if (bins != null && bins.slot(index) >= 0) {
+            return bins;
+        }
+
+        int lowest = index - GROWTH_SLACK;
+        int highest = index + GROWTH_SLACK;
+        if (bins != null) {
+            lowest = Math.min(lowest, bins.offset);
+            highest = Math.max(highest, bins.offset + bins.counts.length() - 1);
+        }
+        // collapse the lowest bins rather than go over the limit
+        lowest = Math.max(lowest, highest - MAX_BINS + 1);
+        Bins grown = new Bins(lowest, highest - lowest + 1);
+        stripes.set(stripe, grown);
+
+        if (bins != null) {
+            for (int slot = 0; slot < bins.counts.length(); slot++) {
+                int n = bins.counts.getAndSet(slot, 0);
+                if (n > 0) {
+                    grown.counts.addAndGet(grown.slot(bins.offset + slot), n);
+                }
+            }
+        }
+        return grown;
+    }
+
+    private static int stripe() {
+        int hash = System.identityHashCode(Thread.currentThread());
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    static int index(double value) {
+        return (int) Math.ceil(Math.log(value) / LOG_GAMMA);
+    }
+
+    /**
+     * @return The value that bin {@code index} stands for, within
+     * {@link #RELATIVE_ACCURACY} of every value in it.
+     */
+    static double value(int index) {
+        return 2 * Math.exp(index * LOG_GAMMA) / (1 + GAMMA);
+    }
+
+    /**
+     * A window of bins, from {@code offset}.
+     */
+    private static final class Bins {
+
+        final int offset;
+
+        final AtomicIntegerArray counts;
+
+        Bins(int offset, int length) {
+            this.offset = offset;
+            this.counts = new AtomicIntegerArray(length);
+        }
+
+        /**
+         * @return The slot of bin {@code index}, or {@code -1} if the window has to grow
+         * for it first. Bins below a full-width window share its lowest slot.
+         */
+        int slot(int index) {
+            int slot = index - offset;
+            if (slot >= counts.length()) {
+                return -1;
+            }
+            if (slot < 0) {
+                return counts.length() == MAX_BINS ? 0 : -1;
+            }
+            return slot;
+        }
+
+    }
+
+    /**
+     * The distribution of one step.
+     */
+    static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(0, 0, 0, 0, 0, 0, new long[0]);
+
+        final long count;
+
+        final double total;
+
+        final double max;
+
+        private final long zeroCount;
+
+        private final long infiniteCount;
+
+        private final int offset;
+
+        private final long[] counts;
+
+        /**
+         * Counted in the bins, which can be off from {@link #count} by recordings that
+         * raced with the end of the step.
+         */
+        private final long binnedCount;
+
+        Snapshot(long count, double total, double max, long zeroCount, long infiniteCount, int offset,
+                long[] counts) {
+            this.count = count;
+            this.total = total;
+            this.max = max;
+            this.zeroCount = zeroCount;
+            this.infiniteCount = infiniteCount;
+            this.offset = offset;
+            this.counts = counts;
+            long binned = zeroCount + infiniteCount;
+            for (long n : counts) {
+                binned += n;
+            }
+            this.binnedCount = binned;
+        }
+
+        /**
+         * @return The value at quantile {@code q}, from {@code 0} to {@code 1}, or
+         * {@code 0} if nothing was recorded.
+         */
+        double valueAtQuantile(double q) {
+            if (binnedCount == 0) {
+                return 0;
+            }
+            double rank = q * (binnedCount - 1);
+            long n = zeroCount;
+            if (n > rank) {
+                return 0;
+            }
+            for (int i = 0; i < counts.length; i++) {
+                n += counts[i];
+                if (n > rank) {
+                    return Math.min(value(offset + i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * @return How many values were at most {@code bound}, give or take those in the
+         * bin of {@code bound}.
+         */
+        long countAtOrBelow(double bound) {
+            long n = zeroCount;
+            if (!(bound > 0)) {
+                return n;
+            }
+            if (bound == Double.POSITIVE_INFINITY) {
+                return binnedCount;
+            }
+            int last = index(bound) - offset;
+            for (int i = 0; i < counts.length && i <= last; i++) {
+                n += counts[i];
+            }
+            return n;
+        }
+
+        /**
+         * @return How many bins the snapshot holds.
+         */
+        int bins() {
+            return counts.length;
+        }
+
+    }
+
+}
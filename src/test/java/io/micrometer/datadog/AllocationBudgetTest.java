@@ -0,0 +1,153 @@
+package io.micrometer.datadog;
+
+import com.timgroup.statsd.NoOpStatsDClient;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MockClock;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Holds the recording, publishing and naming paths to a budget of bytes allocated per
+ * operation, as counted by {@link com.sun.management.ThreadMXBean}, so that allocations
+ * creeping in fail the build. Each operation is warmed up first, for the JIT to compile
+ * it and eliminate what escape analysis can.
+ */
+class AllocationBudgetTest {
+
+    private static final int WARMUP_ROUNDS = 20;
+
+    private static final int MEASURED_ROUNDS = 5;
+
+    private static final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+        .getThreadMXBean();
+
+    private final MockClock clock = new MockClock();
+
+    private final Map<String, String> props = new HashMap<>();
+
+    private final DatadogConfig config = props::get;
+
+    // gauges only hold on to their value weakly
+    private final AtomicLong gaugeValue = new AtomicLong(7);
+
+    @BeforeAll
+    static void allocationsAreCounted() {
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+    }
+
+    @Test
+    void counterIncrement() {
+        Counter counter = registry().counter("my.counter", "k", "v");
+        assertThat(bytesPerOp(10_000, counter::increment)).isZero();
+    }
+
+    @Test
+    void timerRecord() {
+        Timer timer = registry().timer("my.timer", "k", "v");
+        assertThat(bytesPerOp(10_000, () -> timer.record(10, TimeUnit.MILLISECONDS))).isZero();
+    }
+
+    @Test
+    void directDistributionRecord() {
+        props.put("datadog.directDistributions", "true");
+        assertThat(bytesPerDirectRecord()).isZero();
+
+        // all that is left is the String each packed message of up to 64 values is handed
+        // to the client as
+        props.put("datadog.packDistributions", "true");
+        assertThat(bytesPerDirectRecord()).isLessThanOrEqualTo(16);
+    }
+
+    @Test
+    void templatedLookup() {
+        MeterTemplate<Counter> requests = registry().counterTemplate("http.requests", "method", "status");
+        requests.get("GET", "200");
+        assertThat(bytesPerOp(10_000, () -> requests.get("GET", "200").increment())).isZero();
+    }
+
+    @Test
+    void namingConventionConversion() {
+        DatadogNamingConvention convention = new DatadogNamingConvention();
+        assertThat(bytesPerOp(10_000, () -> {
+            // plain, and memoized after the first conversion
+            convention.name("http.server.requests", Meter.Type.TIMER, null);
+            convention.name("1st/http.requests", Meter.Type.TIMER, null);
+            convention.tagKey("status");
+            convention.tagKey("1xx");
+            convention.tagValue("GET");
+            convention.tagValue("\"quoted\"");
+        })).isZero();
+    }
+
+    @Test
+    void steadyStatePublish() {
+        DatadogMeterRegistry registry = registry();
+        int meters = 1000;
+        List<Counter> counters = new ArrayList<>();
+        for (int i = 0; i < meters; i++) {
+            counters.add(registry.counter("my.counter", "i", Integer.toString(i)));
+        }
+        registry.gauge("my.gauge", gaugeValue);
+        registry.timer("my.timer").record(10, TimeUnit.MILLISECONDS);
+
+        long bytesPerPublish = bytesPerOp(10, () -> {
+            clock.add(config.step());
+            registry.publish();
+        });
+        // Micrometer's step counters box their value, up to three times depending on what
+        // the JIT inlines, when they roll over to a new step
+        assertThat(bytesPerPublish / meters).isLessThanOrEqualTo(48);
+    }
+
+    private long bytesPerDirectRecord() {
+        DatadogMeterRegistry registry = registry();
+        Timer timer = registry.timer("my.timer", "k", "v");
+        DistributionSummary summary = registry.summary("my.summary", "k", "v");
+        return bytesPerOp(10_000, () -> {
+            timer.record(10, TimeUnit.MILLISECONDS);
+            summary.record(42);
+        });
+    }
+
+    private DatadogMeterRegistry registry() {
+        props.put("datadog.enabled", "false");
+        return DatadogMeterRegistry.builder(config).clock(clock).statsDClient(new NoOpStatsDClient()).build();
+    }
+
+    /**
+     * @return The bytes allocated on this thread per run of {@code op}, once warmed up,
+     * in the best of several rounds, as a round the JIT recompiles in can only allocate
+     * more.
+     */
+    private static long bytesPerOp(int ops, Runnable op) {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (int i = 0; i < ops; i++) {
+                op.run();
+            }
+        }
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < ops; i++) {
+                op.run();
+            }
+            best = Math.min(best, (threads.getCurrentThreadAllocatedBytes() - before) / ops);
+        }
+        return best;
+    }
+
+}
@@ -18,4 +18,76 @@ class DatadogConfigTest {
         assertThat(config.validate().failures().stream().count()).isEqualTo(0);
     }
 
+    @Test
+    void invalidPublishParallelism() {
+        props.put("datadog.publishParallelism", "0");
+
+        assertThat(config.validate().failures()).hasSize(1);
+    }
+
+    @Test
+    void malformedGaugeChangeThreshold() {
+        props.put("datadog.gaugeChangeThreshold", "a lot");
+
+        assertThat(config.validate().failures()).hasSize(1);
+    }
+
+    @Test
+    void invalidIdleMeterKeepalive() {
+        props.put("datadog.idleMeterKeepalive", "-1s");
+
+        assertThat(config.validate().failures()).hasSize(1);
+    }
+
+    @Test
+    void clientDefaultsAreValid() {
+        props.put("datadog.queueSize", "-1");
+        props.put("datadog.senderWorkers", "4");
+
+        assertThat(config.validate().isValid()).isTrue();
+    }
+
+    @Test
+    void invalidTransportSettings() {
+        props.put("datadog.queueSize", "0");
+        props.put("datadog.bufferPoolSize", "-2");
+        props.put("datadog.socketBufferSize", "big");
+
+        assertThat(config.validate().failures()).hasSize(3);
+    }
+
+    @Test
+    void publishSpreadMustEndBeforeTheNextStep() {
+        props.put("datadog.publishSpread", "12s");
+        assertThat(config.validate().isValid()).isTrue();
+
+        props.put("datadog.publishSpread", "13s");
+        assertThat(config.validate().failures()).hasSize(1);
+
+        props.put("datadog.alignedPublishing", "true");
+        props.put("datadog.publishJitter", "0.5");
+        props.put("datadog.publishSpread", "30s");
+        assertThat(config.validate().isValid()).isTrue();
+    }
+
+    @Test
+    void statsdAddress() {
+        assertThat(StatsdAddress.parse("unix:///var/run/datadog/dsd.socket"))
+            .satisfies(address -> assertThat(address.host).isEqualTo("/var/run/datadog/dsd.socket"))
+            .satisfies(address -> assertThat(address.port).isZero());
+        assertThat(StatsdAddress.parse("udp://agent:8125"))
+            .satisfies(address -> assertThat(address.host).isEqualTo("agent"))
+            .satisfies(address -> assertThat(address.port).isEqualTo(8125));
+        assertThat(StatsdAddress.parse("agent:8125")).isNotNull();
+    }
+
+    @Test
+    void malformedStatsdAddress() {
+        props.put("datadog.statsdAddress", "tcp://agent");
+
+        assertThat(config.validate().failures()).hasSize(1);
+        assertThat(StatsdAddress.parse("agent")).isNull();
+        assertThat(StatsdAddress.parse("unix://")).isNull();
+    }
+
 }
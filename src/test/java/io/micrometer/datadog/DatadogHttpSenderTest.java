@@ -0,0 +1,188 @@
+package io.micrometer.datadog;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import com.github.tomakehurst.wiremock.verification.LoggedRequest;
+import io.micrometer.core.instrument.MockClock;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import ru.lanwen.wiremock.ext.WiremockResolver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(WiremockResolver.class)
+class DatadogHttpSenderTest {
+
+    private final MockClock clock = new MockClock();
+
+    private final Map<String, String> props = new HashMap<>();
+
+    private final DatadogConfig config = props::get;
+
+    // gauges only hold on to their value weakly
+    private final AtomicInteger gaugeValue = new AtomicInteger(7);
+
+    @Test
+    void postsCompressedSeries(@WiremockResolver.Wiremock WireMockServer server) {
+        server.stubFor(post("/api/v2/series").willReturn(aResponse().withStatus(202)));
+        DatadogMeterRegistry registry = registry(server);
+
+        registry.counter("my.counter", "instance", "host-1").increment(3);
+        registry.gauge("my.gauge", gaugeValue);
+        clock.add(config.step());
+        registry.publish();
+
+        server.verify(1, postRequestedFor(urlEqualTo("/api/v2/series")).withHeader("DD-API-KEY", equalTo("key"))
+                .withHeader("Content-Encoding", equalTo("gzip")));
+        String body = body(server.findAll(postRequestedFor(urlEqualTo("/api/v2/series"))).get(0));
+        assertThat(body).startsWith("{\"series\":[")
+                .contains("{\"metric\":\"datadog.my.counter\",\"type\":1,\"interval\":60,"
+                        + "\"points\":[{\"timestamp\":60,\"value\":3.0}],"
+                        + "\"tags\":[\"instance:host-1\",\"statistic:count\"],"
+                        + "\"resources\":[{\"type\":\"host\",\"name\":\"host-1\"}]}")
+                .contains("{\"metric\":\"datadog.my.gauge\",\"type\":3,"
+                        + "\"points\":[{\"timestamp\":60,\"value\":7.0}],\"tags\":[\"statistic:value\"]}");
+    }
+
+    @Test
+    void postsSketchPercentilesAndBuckets(@WiremockResolver.Wiremock WireMockServer server) {
+        server.stubFor(post("/api/v2/series").willReturn(aResponse().withStatus(202)));
+        DatadogMeterRegistry registry = registry(server);
+
+        Timer timer = Timer.builder("my.timer")
+                .publishPercentiles(0.99)
+                .serviceLevelObjectives(Duration.ofMillis(100))
+                .register(registry);
+        timer.record(Duration.ofMillis(10));
+        timer.record(Duration.ofMillis(200));
+        clock.add(config.step());
+        registry.publish();
+
+        String body = body(server.findAll(postRequestedFor(urlEqualTo("/api/v2/series"))).get(0));
+        assertThat(body).contains("{\"metric\":\"datadog.my.timer.percentile\",\"type\":3,")
+                .contains("\"tags\":[\"phi:0.99\"]")
+                .contains("{\"metric\":\"datadog.my.timer.histogram\",\"type\":1,\"interval\":60,"
+                        + "\"points\":[{\"timestamp\":60,\"value\":1.0}],\"tags\":[\"le:100\"]}");
+    }
+
+    @Test
+    void largePublishesAreSplitIntoPayloads(@WiremockResolver.Wiremock WireMockServer server) {
+        server.stubFor(post("/api/v2/series").willReturn(aResponse().withStatus(202)));
+        props.put("datadog.httpPayloadBytes", "2048");
+        DatadogMeterRegistry registry = registry(server);
+
+        List<AtomicInteger> values = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            values.add(registry.gauge("my.gauge", List.of(Tag.of("i", Integer.toString(i))), new AtomicInteger(i)));
+        }
+        registry.publish();
+
+        List<LoggedRequest> requests = server.findAll(postRequestedFor(urlEqualTo("/api/v2/series")));
+        assertThat(requests).hasSizeGreaterThan(1);
+        assertThat(requests.stream().map(DatadogHttpSenderTest::body).mapToInt(body -> body.split("\"metric\"").length - 1)
+                .sum()).isEqualTo(100);
+    }
+
+    @Test
+    void namesAreEscapedOnce(@WiremockResolver.Wiremock WireMockServer server) {
+        server.stubFor(post("/api/v2/series").willReturn(aResponse().withStatus(202)));
+        DatadogMeterRegistry registry = registry(server);
+
+        registry.gauge("my\"gauge", gaugeValue);
+        registry.publish();
+
+        assertThat(body(server.findAll(postRequestedFor(urlEqualTo("/api/v2/series"))).get(0)))
+                .contains("{\"metric\":\"datadog.my\\\"gauge\",");
+    }
+
+    @Test
+    void payloadsAreSplitByEncodedBytes(@WiremockResolver.Wiremock WireMockServer server) {
+        server.stubFor(post("/api/v2/series").willReturn(aResponse().withStatus(202)));
+        props.put("datadog.httpPayloadBytes", "2048");
+        DatadogMeterRegistry registry = registry(server);
+
+        String euros = "\u20ac".repeat(100);
+        List<AtomicInteger> values = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            values.add(registry.gauge("my.gauge", List.of(Tag.of("i", i + euros)), new AtomicInteger(i)));
+        }
+        registry.publish();
+
+        // each payload goes over by at most the series that filled it
+        assertThat(server.findAll(postRequestedFor(urlEqualTo("/api/v2/series"))))
+                .allSatisfy(request -> assertThat(body(request).getBytes(StandardCharsets.UTF_8).length)
+                        .isLessThan(2048 + 512));
+        assertThat(DatadogHttpSender.utf8Length("a\u00e9\u20ac\ud83d\ude00")).isEqualTo(10);
+    }
+
+    @Test
+    void failedPayloadsAreRetried(@WiremockResolver.Wiremock WireMockServer server) {
+        server.stubFor(post("/api/v2/series").inScenario("retry")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(aResponse().withStatus(503))
+                .willSetStateTo("recovered"));
+        server.stubFor(post("/api/v2/series").inScenario("retry")
+                .whenScenarioStateIs("recovered")
+                .willReturn(aResponse().withStatus(202)));
+        DatadogMeterRegistry registry = registry(server);
+
+        registry.gauge("my.gauge", gaugeValue);
+        registry.publish();
+
+        server.verify(2, postRequestedFor(urlEqualTo("/api/v2/series")));
+        assertThat(registry.publishStats().getTransportErrors()).isZero();
+    }
+
+    @Test
+    void rejectedPayloadsAreNotRetried(@WiremockResolver.Wiremock WireMockServer server) {
+        server.stubFor(post("/api/v2/series").willReturn(aResponse().withStatus(403)));
+        DatadogMeterRegistry registry = registry(server);
+
+        registry.gauge("my.gauge", gaugeValue);
+        registry.publish();
+
+        server.verify(1, postRequestedFor(urlEqualTo("/api/v2/series")));
+        assertThat(registry.publishStats().getTransportErrors()).isEqualTo(1);
+    }
+
+    @Test
+    void apiKeyIsRequired() {
+        props.put("datadog.publishMode", "http");
+
+        assertThat(config.validate().failures()).hasSize(1);
+    }
+
+    private DatadogMeterRegistry registry(WireMockServer server) {
+        props.put("datadog.enabled", "false");
+        props.put("datadog.publishMode", "http");
+        props.put("datadog.apiKey", "key");
+        props.put("datadog.uri", server.baseUrl());
+        return DatadogMeterRegistry.builder(config).clock(clock).build();
+    }
+
+    private static String body(LoggedRequest request) {
+        byte[] body = request.getBody();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        catch (IOException e) {
+            // WireMock may already have decompressed it
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+}
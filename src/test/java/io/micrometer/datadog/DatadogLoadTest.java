@@ -0,0 +1,260 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MockClock;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.withinPercentage;
+
+/**
+ * Drives the registry over real sockets into a {@link FakeDogStatsD}, at increasing meter
+ * counts and recording rates and for each of a set of transport settings, and reports
+ * delivered datapoints per second, loss and publish latency, for tuning settings such as
+ * {@link DatadogConfig#maxPacketSizeBytes()} and aggregation.
+ * <p>
+ * The load tests are tagged {@code load} and only run with
+ * {@code ./gradlew test -PloadTests}.
+ */
+class DatadogLoadTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(DatadogLoadTest.class);
+
+    private static final int[] METER_COUNTS = { 1_000, 10_000, 50_000 };
+
+    private static final int[] RECORDS_PER_SECOND = { 10_000, 100_000, 500_000 };
+
+    private static final String NAME_PREFIX = "datadog.load.";
+
+    private static final List<Transport> TRANSPORTS = Arrays.asList(new Transport("client", false),
+            new Transport("client, blocking", false, "blocking", "true"),
+            new Transport("client, 8KiB packets", false, "maxPacketSizeBytes", "8192"),
+            new Transport("client, aggregation", false, "enableAggregation", "true", "aggregationFlushInterval", "200"),
+            new Transport("client, packed distributions", false, "packDistributions", "true"),
+            new Transport("client, uds", true), new Transport("built-in sender", false, "builtInSender", "true"),
+            new Transport("built-in sender, uds", true, "builtInSender", "true"));
+
+    private final MockClock clock = new MockClock();
+
+    @TempDir
+    Path dir;
+
+    private int sockets;
+
+    @Test
+    void fakeServerCountsDatapointsByMetricAndType() throws Exception {
+        for (boolean uds : new boolean[] { false, true }) {
+            try (FakeDogStatsD server = server(uds)) {
+                DatadogTransport transport = DatadogTransport.create(config(server, new HashMap<>()));
+                DatadogMeterRegistry registry = DatadogMeterRegistry
+                    .builder(config(server, props("packDistributions", "true")))
+                    .clock(clock)
+                    .transport(transport)
+                    .build();
+                transport.close();
+
+                registry.counter("load.counter").increment();
+                DistributionSummary summary = registry.summary("load.summary");
+                summary.record(1);
+                summary.record(2);
+                clock.add(Duration.ofMinutes(1));
+                registry.publish();
+
+                // the summary's count, total and max, packed into one line
+                assertThat(server.awaitDatapoints(NAME_PREFIX, 4, 1000)).isEqualTo(4);
+                assertThat(server.datapointsByMetric()).containsEntry("datadog.load.counter|c", 1L)
+                    .containsEntry("datadog.load.summary|d", 3L);
+                assertThat(server.lines()).isLessThan(server.datapoints());
+                assertThat(server.malformed()).isZero();
+                registry.close();
+            }
+        }
+    }
+
+    @Test
+    void sampledDistributionsScaleBackUpToTheRecordedCount() throws Exception {
+        for (String packed : new String[] { "false", "true" }) {
+            try (FakeDogStatsD server = server(false)) {
+                DatadogMeterRegistry registry = DatadogMeterRegistry
+                    .builder(config(server, props("directDistributions", "true", "distributionSampleBudget", "2000",
+                            "packDistributions", packed, "blocking", "true")))
+                    .clock(clock)
+                    .build();
+                DistributionSummary summary = registry.summary("load.sampled");
+
+                // a second ten times over the budget, sent whole, then sampled at a tenth
+                for (int i = 0; i < 20_000; i++) {
+                    summary.record(i);
+                }
+                clock.add(Duration.ofSeconds(1));
+                for (int i = 0; i < 200_000; i++) {
+                    summary.record(i);
+                }
+                registry.publish();
+                server.awaitDatapoints(NAME_PREFIX, Long.MAX_VALUE, 500);
+
+                // whole packed messages of 64 values are sampled, so they vary the most
+                assertThat(server.scaledDatapoints(NAME_PREFIX)).isCloseTo(220_000, withinPercentage(25));
+                assertThat(server.datapoints(NAME_PREFIX)).isLessThan(60_000);
+                registry.close();
+            }
+        }
+    }
+
+    @Test
+    @Tag("load")
+    void publishThroughput() throws Exception {
+        List<String> report = new ArrayList<>();
+        report.add(header("meters"));
+        for (Transport transport : TRANSPORTS) {
+            for (int meters : METER_COUNTS) {
+                try (FakeDogStatsD server = server(transport.uds)) {
+                    DatadogMeterRegistry registry = transport.registry(server, clock);
+                    for (int i = 0; i < meters; i++) {
+                        registry.counter("load.counter", "i", Integer.toString(i)).increment();
+                    }
+                    clock.add(Duration.ofMinutes(1));
+
+                    long start = System.nanoTime();
+                    registry.publish();
+                    long publishNanos = System.nanoTime() - start;
+                    long delivered = server.awaitDatapoints(NAME_PREFIX, meters, 1000);
+                    report.add(row(transport, meters, meters, delivered, publishNanos, server, start));
+
+                    assertThat(delivered).isPositive();
+                    assertThat(server.malformed()).isZero();
+                    registry.close();
+                }
+            }
+        }
+        logger.info("publish throughput\n{}", String.join("\n", report));
+    }
+
+    @Test
+    @Tag("load")
+    void directDistributionThroughput() throws Exception {
+        List<String> report = new ArrayList<>();
+        report.add(header("records/s"));
+        for (Transport transport : TRANSPORTS) {
+            for (int recordsPerSecond : RECORDS_PER_SECOND) {
+                try (FakeDogStatsD server = server(transport.uds)) {
+                    DatadogMeterRegistry registry = transport.registry(server, clock, "directDistributions", "true");
+                    DistributionSummary summary = registry.summary("load.summary");
+
+                    long start = System.nanoTime();
+                    long recorded = record(summary, recordsPerSecond);
+                    // sends what packed distributions still buffer
+                    long publishStart = System.nanoTime();
+                    registry.publish();
+                    long publishNanos = System.nanoTime() - publishStart;
+                    long delivered = server.awaitDatapoints(NAME_PREFIX, recorded, 1000);
+                    report.add(row(transport, recordsPerSecond, recorded, delivered, publishNanos, server, start));
+
+                    assertThat(delivered).isPositive();
+                    assertThat(server.malformed()).isZero();
+                    registry.close();
+                }
+            }
+        }
+        logger.info("direct distribution throughput\n{}", String.join("\n", report));
+    }
+
+    /**
+     * Records {@code recordsPerSecond} values for one second, paced in millisecond slices.
+     */
+    private static long record(DistributionSummary summary, int recordsPerSecond) {
+        int perSlice = Math.max(1, recordsPerSecond / 1000);
+        long start = System.nanoTime();
+        long recorded = 0;
+        for (int slice = 0; slice < 1000; slice++) {
+            for (int i = 0; i < perSlice; i++) {
+                summary.record(recorded++ % 1000);
+            }
+            long ahead = start + TimeUnit.MILLISECONDS.toNanos(slice + 1) - System.nanoTime();
+            if (ahead > 0) {
+                LockSupport.parkNanos(ahead);
+            }
+        }
+        return recorded;
+    }
+
+    private FakeDogStatsD server(boolean uds) throws IOException {
+        return uds ? FakeDogStatsD.uds(dir.resolve("dsd-" + sockets++ + ".socket").toFile()) : FakeDogStatsD.udp();
+    }
+
+    private static String header(String load) {
+        return String.format("%-30s %10s %10s %10s %7s %11s %14s %9s %11s", "transport", load, "sent", "delivered",
+                "loss", "publish ms", "datapoints/s", "packets", "bytes");
+    }
+
+    private static String row(Transport transport, int load, long sent, long delivered, long publishNanos,
+            FakeDogStatsD server, long start) {
+        double seconds = Math.max(1, server.lastPacketNanos() - start) / 1e9;
+        return String.format("%-30s %10d %10d %10d %6.2f%% %11.1f %14.0f %9d %11d", transport.name, load, sent,
+                delivered, 100.0 * Math.max(0, sent - delivered) / sent, publishNanos / 1e6, delivered / seconds,
+                server.packets(), server.bytes());
+    }
+
+    private static Map<String, String> props(String... keysAndValues) {
+        Map<String, String> props = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            props.put("datadog." + keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return props;
+    }
+
+    private static DatadogConfig config(FakeDogStatsD server, Map<String, String> props) {
+        props.put("datadog.enabled", "false");
+        props.put("datadog.statsdAddress", server.address());
+        return props::get;
+    }
+
+    private static final class Transport {
+
+        final String name;
+
+        final boolean uds;
+
+        final String[] settings;
+
+        Transport(String name, boolean uds, String... settings) {
+            this.name = name;
+            this.uds = uds;
+            this.settings = settings;
+        }
+
+        /**
+         * The registry shares its client through a {@link DatadogTransport}, so that
+         * closing the registry stops the client too.
+         */
+        DatadogMeterRegistry registry(FakeDogStatsD server, MockClock clock, String... moreSettings) {
+            Map<String, String> props = props(settings);
+            props.putAll(props(moreSettings));
+            DatadogConfig config = config(server, props);
+            DatadogTransport transport = DatadogTransport.create(config);
+            DatadogMeterRegistry registry = DatadogMeterRegistry.builder(config)
+                .clock(clock)
+                .transport(transport)
+                .build();
+            transport.close();
+            return registry;
+        }
+
+    }
+
+}
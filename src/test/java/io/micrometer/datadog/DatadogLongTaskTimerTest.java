@@ -0,0 +1,103 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.LongTaskTimer;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MockClock;
+import io.micrometer.core.instrument.Tags;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DatadogLongTaskTimerTest {
+
+    private final MockClock clock = new MockClock();
+
+    private final DatadogLongTaskTimer timer = new DatadogLongTaskTimer(
+            new Meter.Id("my.ltt", Tags.empty(), null, null, Meter.Type.LONG_TASK_TIMER), clock, TimeUnit.SECONDS);
+
+    @Test
+    void activeTasksAndDurations() {
+        LongTaskTimer.Sample first = timer.start();
+        clock.add(Duration.ofMillis(2500));
+        LongTaskTimer.Sample second = timer.start();
+        clock.add(Duration.ofMillis(500));
+
+        assertThat(timer.activeTasks()).isEqualTo(2);
+        assertThat(timer.duration(TimeUnit.MILLISECONDS)).isEqualTo(3000 + 500);
+        assertThat(timer.max(TimeUnit.MILLISECONDS)).isEqualTo(3000);
+        assertThat(second.duration(TimeUnit.MILLISECONDS)).isEqualTo(500);
+
+        assertThat(first.stop()).isEqualTo(TimeUnit.SECONDS.toNanos(3));
+        assertThat(timer.activeTasks()).isEqualTo(1);
+        assertThat(timer.duration(TimeUnit.MILLISECONDS)).isEqualTo(500);
+        // as old as the start of its bucket
+        assertThat(timer.max(TimeUnit.MILLISECONDS)).isEqualTo(1000);
+        assertThat(first.duration(TimeUnit.MILLISECONDS)).isEqualTo(-1);
+    }
+
+    @Test
+    void stoppingTwiceCountsOnce() {
+        LongTaskTimer.Sample sample = timer.start();
+        timer.start();
+
+        sample.stop();
+        sample.stop();
+
+        assertThat(timer.activeTasks()).isEqualTo(1);
+    }
+
+    @Test
+    void bucketsOfStoppedTasksAreRetired() {
+        for (int i = 0; i < 10; i++) {
+            timer.start().stop();
+            clock.add(Duration.ofSeconds(1));
+        }
+        LongTaskTimer.Sample sample = timer.start();
+        clock.add(Duration.ofSeconds(1));
+
+        assertThat(timer.activeTasks()).isEqualTo(1);
+        assertThat(timer.max(TimeUnit.SECONDS)).isEqualTo(1);
+        sample.stop();
+        assertThat(timer.activeTasks()).isZero();
+        assertThat(timer.duration(TimeUnit.SECONDS)).isZero();
+    }
+
+    @Test
+    void concurrentStartsAndStops() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        LongTaskTimer.Sample sample = timer.start();
+                        if (i % 100 == 0) {
+                            clock.add(Duration.ofMillis(100));
+                            timer.activeTasks();
+                        }
+                        if (i % 2 == 0) {
+                            sample.stop();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        assertThat(timer.activeTasks()).isEqualTo(4 * 5_000);
+    }
+
+}
@@ -2,32 +2,59 @@ package io.micrometer.datadog;
 
 import com.github.tomakehurst.wiremock.WireMockServer;
 import com.github.tomakehurst.wiremock.matching.RequestPatternBuilder;
+import com.timgroup.statsd.StatsDClient;
 import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.config.NamingConvention;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.invocation.Invocation;
 import ru.lanwen.wiremock.ext.WiremockResolver;
 
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.assertj.core.api.Assertions.offset;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
 
 @ExtendWith(WiremockResolver.class)
 class DatadogMeterRegistryTest {
 
+    private final Map<String, String> props = new HashMap<>(Map.of("datadog.enabled", "false"));
+
+    private final DatadogConfig config = props::get;
+
+    private final MockClock clock = new MockClock();
+
+    private final StatsDClient statsDClient = mock(StatsDClient.class);
+
+    // gauges only hold on to their value weakly
+    private final AtomicInteger gaugeValue = new AtomicInteger(1);
+
+    private final DatadogMeterRegistry registry = registry(Map.of());
+
     @Test
     void testTCPStatsdConfiguration(@WiremockResolver.Wiremock WireMockServer server) {
         Clock clock = new MockClock();
-        DatadogMeterRegistry registry = new DatadogMeterRegistry(new DatadogConfig() {
-            @Override
-            public String get(String key) {
-                return null;
-            }
-
-            @Override
-            public boolean enabled() {
-                return false;
-            }
-        }, clock);
+        DatadogMeterRegistry registry = new DatadogMeterRegistry(config, clock);
 
         server.stubFor(any(anyUrl()));
 
@@ -45,4 +72,632 @@ class DatadogMeterRegistryTest {
         registry.close();
     }
 
+    @Test
+    void publishReusesConventionNameAndTags() {
+        Counter counter = registry.counter("my.counter", "k", "v");
+
+        counter.increment();
+        clock.add(config.step());
+        registry.publish();
+        counter.increment();
+        clock.add(config.step());
+        registry.publish();
+
+        List<Object[]> counts = invocations("count");
+        assertThat(counts).hasSize(2);
+        assertThat(counts.get(0)[0]).isEqualTo("my.counter");
+        assertThat((String[]) counts.get(0)[3]).containsExactly("\"k:v\"", "\"statistic:count\"");
+        assertThat(counts.get(1)[0]).isSameAs(counts.get(0)[0]);
+        assertThat(counts.get(1)[3]).isSameAs(counts.get(0)[3]);
+    }
+
+    @Test
+    void namingConventionChangeInvalidatesCachedNames() {
+        registry.counter("my.counter").increment();
+        clock.add(config.step());
+        registry.publish();
+
+        registry.config().namingConvention(new DatadogNamingConvention(NamingConvention.snakeCase));
+        registry.publish();
+
+        assertThat(invocations("count")).extracting(args -> args[0]).containsExactly("my.counter", "my_counter");
+    }
+
+    @Test
+    void removedMeterIsNotPublished() {
+        Counter counter = registry.counter("my.counter");
+        counter.increment();
+        registry.remove(counter);
+        clock.add(config.step());
+        registry.publish();
+
+        assertThat(invocations("count")).isEmpty();
+    }
+
+    @Test
+    void directDistributionsAreSentWhenRecorded() {
+        DatadogMeterRegistry registry = registry(Map.of("datadog.directDistributions", "true"));
+
+        Timer timer = registry.timer("my.timer", "k", "v");
+        timer.record(Duration.ofMillis(15));
+        DistributionSummary summary = registry.summary("my.summary");
+        summary.record(3);
+
+        List<Object[]> distributions = invocations("distribution");
+        assertThat(distributions).extracting(args -> args[0], args -> args[1])
+                .containsExactly(tuple("my.timer", 15.0), tuple("my.summary", 3.0));
+        assertThat((String[]) distributions.get(0)[3]).containsExactly("\"k:v\"");
+        assertThat(timer.count()).isEqualTo(1);
+        assertThat(summary.totalAmount()).isEqualTo(3);
+
+        clock.add(config.step());
+        registry.publish();
+        assertThat(invocations("distribution")).hasSize(2);
+    }
+
+    @Test
+    void shardedPublishWritesEveryMeterOnce() {
+        DatadogMeterRegistry registry = registry(Map.of("datadog.publishParallelism", "4"));
+
+        for (int i = 0; i < 2000; i++) {
+            registry.counter("my.counter", "index", Integer.toString(i)).increment();
+        }
+        clock.add(config.step());
+        registry.publish();
+        registry.close();
+
+        assertThat(invocations("count")).hasSize(2000)
+                .extracting(args -> ((String[]) args[3])[0])
+                .doesNotHaveDuplicates();
+    }
+
+    @Test
+    void idleMetersAreSkippedAfterKeepalive() {
+        DatadogMeterRegistry registry = registry(Map.of("datadog.skipIdleMeters", "true", "datadog.idleMeterKeepalive", "1m"));
+
+        registry.counter("active").increment();
+        registry.counter("idle");
+        registry.gauge("my.gauge", 1);
+
+        clock.add(config.step());
+        registry.publish();
+        assertThat(invocations("count")).extracting(args -> args[0], args -> args[1])
+                .containsExactly(tuple("active", 1.0));
+
+        // one zero is kept alive, then the counter goes quiet
+        clock.add(config.step());
+        registry.publish();
+        clock.add(config.step());
+        registry.publish();
+        assertThat(invocations("count")).extracting(args -> args[0], args -> args[1])
+                .containsExactly(tuple("active", 1.0), tuple("active", 0.0));
+        assertThat(invocations("gauge")).hasSize(3);
+    }
+
+    @Test
+    void unchangedGaugesAreSentOnHeartbeat() {
+        DatadogMeterRegistry registry = registry(Map.of("datadog.gaugeHeartbeatSteps", "3", "datadog.gaugeChangeThreshold", "0.5"));
+
+        AtomicInteger value = registry.gauge("my.gauge", gaugeValue);
+        value.set(10);
+        for (int step = 0; step < 4; step++) {
+            registry.publish();
+        }
+        value.set(12);
+        registry.publish();
+
+        assertThat(invocations("gauge")).extracting(args -> args[1]).containsExactly(10.0, 10.0, 12.0);
+
+        // a first value of NaN hasn't been sent before
+        registry.gauge("nan.gauge", gaugeValue, v -> Double.NaN);
+        registry.publish();
+        assertThat(invocations("gauge")).filteredOn(args -> args[0].equals("nan.gauge")).hasSize(1);
+    }
+
+    @Test
+    void publishStatsLeaveOutTelemetryMeters() {
+        DatadogMeterRegistry registry = registry(Map.of("datadog.registryTelemetry", "true"));
+
+        registry.counter("my.counter").increment();
+        registry.gauge("my.gauge", gaugeValue);
+        registry.timer("my.timer");
+        registry.publish();
+
+        DatadogPublishStats stats = registry.publishStats();
+        assertThat(stats.getPublishes()).isEqualTo(1);
+        assertThat(stats.getMetersVisited()).isEqualTo(3);
+        assertThat(stats.getCountsSent()).isEqualTo(1);
+        assertThat(stats.getGaugesSent()).isEqualTo(1);
+        assertThat(stats.getDistributionsSent()).isEqualTo(3);
+        assertThat(invocations("count")).extracting(args -> args[0])
+                .contains("micrometer.registry.publishes", "micrometer.registry.datapoints");
+
+        registry.publish();
+        assertThat(registry.publishStats().getCountsSent()).isEqualTo(2);
+    }
+
+    @Test
+    void distributionValuesArePacked() {
+        DatadogMeterRegistry registry = registry(Map.of("datadog.packDistributions", "true"));
+
+        Timer timer = registry.timer("my.timer");
+        timer.record(1, TimeUnit.SECONDS);
+        timer.record(2, TimeUnit.SECONDS);
+        clock.add(config.step());
+        registry.publish();
+
+        assertThat(invocations("distribution")).singleElement()
+                .satisfies(args -> assertThat(args[0] + ":" + args[1]).isEqualTo("my.timer:2:3000:2000.0"));
+    }
+
+    @Test
+    void directDistributionValuesArePackedOnPublish() {
+        DatadogMeterRegistry registry = registry(Map.of("datadog.packDistributions", "true", "datadog.directDistributions", "true"));
+
+        DistributionSummary summary = registry.summary("my.summary");
+        for (int i = 0; i < 100; i++) {
+            summary.record(i);
+        }
+        assertThat(invocations("distribution")).hasSize(1);
+        registry.publish();
+
+        List<Object[]> distributions = invocations("distribution");
+        assertThat(distributions).hasSize(2);
+        assertThat(packedValues(distributions)).hasSize(100).endsWith("99");
+        assertThat(registry.publishStats().getDistributionsSent()).isEqualTo(100);
+    }
+
+    @Test
+    void packedMessagesStayWithinPacketSize() {
+        DatadogMeterRegistry registry = registry(Map.of("datadog.packDistributions", "true", "datadog.directDistributions", "true",
+                "datadog.maxPacketSizeBytes", "400"));
+
+        DistributionSummary summary = registry.summary("my.summary");
+        for (int i = 0; i < DirectDistribution.BUFFERED_VALUES; i++) {
+            summary.record(123456);
+        }
+
+        List<Object[]> distributions = invocations("distribution");
+        assertThat(distributions).hasSizeGreaterThan(1);
+        assertThat(packedValues(distributions)).hasSize(DirectDistribution.BUFFERED_VALUES);
+        assertThat(distributions).allSatisfy(args -> assertThat(
+                ((String) args[0]).length() + ":123456".length() - "my.summary".length())
+            .isLessThanOrEqualTo(400 - DistributionPacker.RESERVED_BYTES - "my.summary".length()));
+    }
+
+    @Test
+    void tagSetsOverTheLimitGoToAnOverflowMeter() {
+        DatadogMeterRegistry registry = registry(Map.of("datadog.maxTagSetsPerName", "2"));
+
+        for (int i = 0; i < 5; i++) {
+            registry.counter("requests", "request.id", Integer.toString(i)).increment();
+        }
+        registry.counter("requests", "request.id", "0").increment();
+        registry.counter("requests", "request.id", "4").increment();
+        clock.add(config.step());
+
+        assertThat(registry.find("requests").counters()).hasSize(3);
+        assertThat(registry.get("requests").tags("cardinality", "overflow").counter().count()).isEqualTo(4);
+        assertThat(registry.get("requests").tag("request.id", "0").counter().count()).isEqualTo(2);
+        assertThat(registry.publishStats().getMetersRejected()).isEqualTo(3);
+    }
+
+    @Test
+    void meterLimitAppliesAcrossNames() {
+        DatadogMeterRegistry registry = registry(Map.of("datadog.maxMeters", "2"));
+
+        registry.counter("a");
+        Counter b = registry.counter("b");
+        registry.counter("c");
+        assertThat(registry.find("c").counters()).isEmpty();
+
+        registry.remove(b);
+        registry.counter("d");
+        assertThat(registry.get("d").counter().getId().getTags()).isEmpty();
+    }
+
+    @Test
+    void overflowMetersCountAgainstTheMeterLimit() {
+        DatadogMeterRegistry registry = registry(Map.of("datadog.maxTagSetsPerName", "1", "datadog.maxMeters", "3"));
+
+        for (String name : List.of("a", "b", "c")) {
+            for (int i = 0; i < 3; i++) {
+                registry.counter(name, "i", Integer.toString(i)).increment();
+                registry.counter(name, "i", Integer.toString(i)).increment();
+            }
+        }
+
+        assertThat(registry.getMeters()).extracting(meter -> meter.getId().getName() + meter.getId().getTags())
+            .containsExactlyInAnyOrder("a[tag(i=0)]", "a[tag(cardinality=overflow)]", "b[tag(i=0)]");
+        // each looked up twice, but counted once
+        assertThat(registry.publishStats().getMetersRejected()).isEqualTo(7);
+    }
+
+    @Test
+    void limitsApplyToIdsAsLaterFiltersLeaveThem() {
+        DatadogMeterRegistry registry = registry(Map.of("datadog.maxMeters", "2"));
+        registry.config()
+            .meterFilter(MeterFilter.ignoreTags("request.id"))
+            .meterFilter(MeterFilter.denyNameStartsWith("denied"));
+
+        for (int i = 0; i < 5; i++) {
+            registry.counter("requests", "request.id", Integer.toString(i)).increment();
+            registry.counter("denied." + i);
+        }
+        registry.counter("other");
+        clock.add(config.step());
+
+        assertThat(registry.get("requests").counter().count()).isEqualTo(5);
+        assertThat(registry.find("other").tags("cardinality", "overflow").counter()).isNull();
+        assertThat(registry.publishStats().getMetersRejected()).isZero();
+    }
+
+    @Test
+    void busyDirectDistributionsAreSampledDownToTheBudget() {
+        props.put("datadog.directDistributions", "true");
+        props.put("datadog.distributionSampleBudget", "10");
+        DatadogMeterRegistry registry = DatadogMeterRegistry.builder(config)
+                .clock(clock)
+                .statsDClient(statsDClient)
+                .unsampledDistributions(id -> false)
+                .build();
+
+        DistributionSummary summary = registry.summary("my.summary");
+        for (int i = 0; i < 100; i++) {
+            summary.record(i);
+        }
+        assertThat(invocations("distribution")).hasSize(100).allSatisfy(args -> assertThat(args[2]).isEqualTo(1.0));
+
+        clock.add(Duration.ofSeconds(1));
+        for (int i = 0; i < 1000; i++) {
+            summary.record(i);
+        }
+        // for the client to sample
+        List<Object[]> sampled = invocations("distribution").subList(100, invocations("distribution").size());
+        assertThat(sampled).hasSize(1000).allSatisfy(args -> assertThat(args[2]).isEqualTo(10 / 101.0));
+    }
+
+    @Test
+    void unsampledDirectDistributionsSendEveryValue() {
+        props.put("datadog.directDistributions", "true");
+        props.put("datadog.distributionSampleBudget", "10");
+        DatadogMeterRegistry registry = DatadogMeterRegistry.builder(config)
+                .clock(clock)
+                .statsDClient(statsDClient)
+                .unsampledDistributions(id -> id.getName().equals("my.summary"))
+                .build();
+
+        DistributionSummary summary = registry.summary("my.summary");
+        summary.record(1);
+        clock.add(Duration.ofSeconds(1));
+        for (int i = 0; i < 1000; i++) {
+            summary.record(i);
+        }
+
+        assertThat(invocations("distribution")).hasSize(1001);
+    }
+
+    @Test
+    void slowCallbacksDoNotHoldUpThePublish() throws InterruptedException {
+        DatadogMeterRegistry registry = registry(Map.of("datadog.callbackTimeout", "100ms"));
+        CountDownLatch release = new CountDownLatch(1);
+
+        registry.gauge("slow.gauge", gaugeValue, value -> {
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return value.get();
+        });
+        registry.gauge("fast.gauge", gaugeValue);
+        for (int i = 0; i < CallbackEvaluator.SLOW_STRIKES; i++) {
+            long start = System.nanoTime();
+            registry.publish();
+            assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(5));
+        }
+
+        assertThat(invocations("gauge")).extracting(args -> args[0])
+                .containsExactly("fast.gauge", "fast.gauge", "fast.gauge");
+        assertThat(registry.publishStats().getCallbacksTimedOut()).isEqualTo(CallbackEvaluator.SLOW_STRIKES);
+
+        release.countDown();
+        Thread.sleep(200);
+        registry.publish();
+        assertThat(invocations("gauge")).extracting(args -> args[0]).contains("slow.gauge");
+        registry.close();
+    }
+
+    @Test
+    void slowFunctionCountersAreNotPublishedTwice() {
+        DatadogMeterRegistry registry = registry(Map.of("datadog.callbackTimeout", "100ms"));
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+
+        FunctionCounter.builder("my.counter", gaugeValue, value -> {
+            if (calls.incrementAndGet() > 1) {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return value.get();
+        }).register(registry);
+        gaugeValue.set(5);
+        clock.add(config.step());
+        registry.publish();
+        clock.add(config.step());
+        registry.publish();
+
+        // the missed step's increase is still counted by the next good evaluation
+        assertThat(invocations("count")).extracting(args -> args[1]).containsExactly(5.0);
+        assertThat(registry.publishStats().getCallbacksTimedOut()).isEqualTo(1);
+        release.countDown();
+        registry.close();
+    }
+
+    @Test
+    void failingCallbacksPublishTheLastGoodValue() {
+        DatadogMeterRegistry registry = registry(Map.of("datadog.callbackTimeout", "100ms"));
+        AtomicInteger calls = new AtomicInteger();
+
+        registry.gauge("my.gauge", gaugeValue, value -> {
+            if (calls.incrementAndGet() > 1) {
+                throw new IllegalStateException("pool is closed");
+            }
+            return 42;
+        });
+        registry.publish();
+        registry.publish();
+
+        assertThat(invocations("gauge")).extracting(args -> args[1]).containsExactly(42.0, 42.0);
+        assertThat(registry.publishStats().getCallbacksFailed()).isEqualTo(1);
+        // read directly, a gauge still gives NaN like any other
+        assertThat(registry.get("my.gauge").gauge().value()).isNaN();
+        registry.close();
+    }
+
+    @Test
+    void templatesHandOutOneMeterPerSetOfValues() {
+        MeterTemplate<Timer> requests = registry.timerTemplate("http.requests", "method", "status");
+
+        Timer ok = requests.get("GET", "200");
+        assertThat(requests.get("GET", "200")).isSameAs(ok);
+        assertThat(requests.get("GET", "500")).isNotSameAs(ok);
+        assertThat(ok.getId().getTags()).containsExactly(Tag.of("method", "GET"), Tag.of("status", "200"));
+        assertThat(registry.get("http.requests").tags("method", "GET", "status", "200").timer()).isSameAs(ok);
+        assertThatIllegalArgumentException().isThrownBy(() -> requests.get("GET"));
+    }
+
+    @Test
+    void templatesKeepABoundedTree() {
+        MeterTemplate<Counter> requests = registry.counterTemplate("requests", "request.id");
+
+        for (int i = 0; i < MeterTemplate.MAX_CACHED_METERS + 100; i++) {
+            requests.get(Integer.toString(i)).increment();
+        }
+
+        assertThat(requests.cached()).isEqualTo(MeterTemplate.MAX_CACHED_METERS);
+        String uncached = Integer.toString(MeterTemplate.MAX_CACHED_METERS + 1);
+        assertThat(requests.get(uncached)).isSameAs(registry.get("requests").tag("request.id", uncached).counter());
+    }
+
+    @Test
+    void templatesDoNotKeepMetersRemovedWhileTheyRegister() {
+        MeterTemplate<Counter> errors = registry.template(List.of("type"), tags -> {
+            Counter counter = registry.counter("errors", tags);
+            registry.remove(counter);
+            return counter;
+        });
+
+        errors.get("timeout");
+        assertThat(errors.cached()).isZero();
+    }
+
+    @Test
+    void templatesRegisterRemovedMetersAgain() {
+        MeterTemplate<Counter> errors = registry.counterTemplate("errors", "type");
+
+        Counter counter = errors.get("timeout");
+        registry.remove(counter);
+
+        Counter registered = errors.get("timeout");
+        assertThat(registered).isNotSameAs(counter);
+        assertThat(registry.get("errors").counter()).isSameAs(registered);
+    }
+
+    @Test
+    void tieredMetersArePublishedOncePerTierStep() {
+        DatadogMeterRegistry registry = DatadogMeterRegistry.builder(config)
+                .clock(clock)
+                .statsDClient(statsDClient)
+                .publishTier("slow.", Duration.ofMinutes(5))
+                .build();
+
+        registry.counter("slow.counter").increment();
+        registry.counter("fast.counter").increment();
+        for (int i = 0; i < 5; i++) {
+            clock.add(config.step());
+            registry.publish();
+        }
+
+        List<Object[]> counts = invocations("count");
+        assertThat(counts).filteredOn(args -> args[0].equals("fast.counter")).hasSize(5);
+        assertThat(counts).filteredOn(args -> args[0].equals("slow.counter"))
+                .extracting(args -> args[1])
+                .containsExactly(1.0);
+    }
+
+    @Test
+    void tieredTimersKeepTheirMaxOverTheTierStep() {
+        DatadogMeterRegistry registry = DatadogMeterRegistry.builder(config)
+                .clock(clock)
+                .statsDClient(statsDClient)
+                .publishTier("slow.", Duration.ofMinutes(5))
+                .build();
+
+        Timer timer = registry.timer("slow.timer");
+        timer.record(Duration.ofMillis(500));
+        clock.add(Duration.ofMinutes(4));
+
+        assertThat(timer.max(TimeUnit.MILLISECONDS)).isEqualTo(500);
+    }
+
+    @Test
+    void tierStepMustBeAMultipleOfTheStep() {
+        assertThatIllegalArgumentException().isThrownBy(() -> DatadogMeterRegistry.builder(config)
+                .publishTier("slow.", Duration.ofSeconds(90)));
+    }
+
+    @Test
+    void sketchedTimersPublishPercentilesAndSloCounts() {
+        Timer timer = Timer.builder("my.timer")
+                .publishPercentiles(0.5, 0.99)
+                .serviceLevelObjectives(Duration.ofMillis(100))
+                .register(registry);
+        assertThat(timer).isInstanceOf(DatadogSketchTimer.class);
+        for (int i = 1; i <= 200; i++) {
+            timer.record(i, TimeUnit.MILLISECONDS);
+        }
+        clock.add(config.step());
+        registry.publish();
+
+        assertThat(invocations("gauge")).filteredOn(args -> args[0].equals("my.timer.percentile"))
+                .extracting(args -> ((String[]) args[3])[0], args -> (double) args[1])
+                .satisfiesExactlyInAnyOrder(
+                        percentile -> assertThat(percentile.toList()).first().isEqualTo("\"phi:0.5\""),
+                        percentile -> assertThat(percentile.toList()).first().isEqualTo("\"phi:0.99\""))
+                .allSatisfy(percentile -> {
+                    double expected = percentile.toList().get(0).equals("\"phi:0.5\"") ? 100 : 198;
+                    assertThat((double) percentile.toList().get(1))
+                            .isCloseTo(expected, offset(expected * 2 * StepSketch.RELATIVE_ACCURACY));
+                });
+        // give or take the values that share a bin with the boundary
+        assertThat(invocations("count")).filteredOn(args -> args[0].equals("my.timer.histogram"))
+                .singleElement()
+                .satisfies(args -> {
+                    assertThat((String[]) args[3]).containsExactly("\"le:100\"");
+                    assertThat((double) args[1]).isBetween(100.0, 100 * (1 + 2 * StepSketch.RELATIVE_ACCURACY));
+                });
+        assertThat(timer.count()).isEqualTo(200);
+        assertThat(timer.max(TimeUnit.MILLISECONDS)).isEqualTo(200);
+    }
+
+    @Test
+    void publishSpreadPacesTheSends() {
+        DatadogMeterRegistry registry = registry(Map.of("datadog.publishSpread", "200ms"));
+
+        for (int i = 0; i < 10; i++) {
+            registry.counter("counter" + i).increment();
+        }
+        clock.add(config.step());
+        long start = System.nanoTime();
+        registry.publish();
+
+        // the last of ten meters is sent 9/10ths of the way into the spread
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(170));
+        assertThat(invocations("count")).hasSize(10);
+    }
+
+    @Test
+    void lazyStartStartsNoThreadsUntilAMeterIsRegisteredAndPublished() throws Exception {
+        try (DatagramSocket listener = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            listener.setSoTimeout(5000);
+            Set<Thread> before = Thread.getAllStackTraces().keySet();
+            DatadogMeterRegistry registry = lazyRegistry("127.0.0.1:" + listener.getLocalPort());
+
+            assertThat(newThreads(before)).isEmpty();
+
+            registry.counter("requests").increment();
+            assertThat(newThreads(before)).singleElement().asString().startsWith("datadog-metrics-publisher");
+
+            clock.add(config.step());
+            registry.publish();
+            assertThat(newThreads(before)).anyMatch(name -> name.startsWith("StatsD-"));
+            DatagramPacket packet = new DatagramPacket(new byte[1024], 1024);
+            listener.receive(packet);
+            assertThat(new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8))
+                    .startsWith("datadog.requests:1|c");
+            registry.close();
+        }
+    }
+
+    @Test
+    void lazyStartSendsDirectDistributionsRecordedBeforeTheClientIsBuilt() throws Exception {
+        try (DatagramSocket listener = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            listener.setSoTimeout(5000);
+            DatadogMeterRegistry registry = lazyRegistry("127.0.0.1:" + listener.getLocalPort());
+            Timer timer = registry.timer("latency");
+            for (int i = 1; i <= 3; i++) {
+                timer.record(Duration.ofMillis(i));
+            }
+            registry.publish();
+
+            List<String> lines = new ArrayList<>();
+            while (lines.size() < 3) {
+                DatagramPacket packet = new DatagramPacket(new byte[1024], 1024);
+                listener.receive(packet);
+                Arrays.stream(new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8).split("\n"))
+                        .filter(line -> line.startsWith("datadog.latency:"))
+                        .forEach(lines::add);
+            }
+            assertThat(lines).containsExactly("datadog.latency:1|d|@1.000000", "datadog.latency:2|d|@1.000000",
+                    "datadog.latency:3|d|@1.000000");
+            registry.close();
+        }
+    }
+
+    @Test
+    void lazyStartRecordingNeverBuildsTheClient() {
+        DatadogMeterRegistry registry = lazyRegistry("udp://no-such-host.invalid:8125");
+        Timer timer = Timer.builder("latency").publishPercentiles(0.99).register(registry);
+
+        // the agent can't be resolved, which only the publishing thread finds out
+        timer.record(Duration.ofMillis(10));
+        registry.close();
+    }
+
+    private static List<String> newThreads(Set<Thread> before) {
+        return Thread.getAllStackTraces()
+                .keySet()
+                .stream()
+                .filter(thread -> !before.contains(thread))
+                .map(Thread::getName)
+                .filter(name -> name.startsWith("StatsD-") || name.startsWith("datadog-metrics-publisher"))
+                .toList();
+    }
+
+    private DatadogMeterRegistry registry(Map<String, String> overrides) {
+        props.putAll(overrides);
+        return DatadogMeterRegistry.builder(config).clock(clock).statsDClient(statsDClient).build();
+    }
+
+    /**
+     * @return A registry that starts enabled and builds its own client, sending to
+     * {@code statsdAddress}.
+     */
+    private DatadogMeterRegistry lazyRegistry(String statsdAddress) {
+        props.putAll(Map.of("datadog.enabled", "true", "datadog.lazyStart", "true", "datadog.directDistributions",
+                "true", "datadog.statsdAddress", statsdAddress));
+        return DatadogMeterRegistry.builder(config).clock(clock).build();
+    }
+
+    private static List<String> packedValues(List<Object[]> distributions) {
+        return distributions.stream()
+                .flatMap(args -> Stream.concat(Arrays.stream(((String) args[0]).split(":")).skip(1),
+                        Stream.of(String.valueOf(((Double) args[1]).longValue()))))
+                .toList();
+    }
+
+    private List<Object[]> invocations(String method) {
+        return mockingDetails(statsDClient).getInvocations()
+                .stream()
+                .filter(invocation -> invocation.getMethod().getName().equals(method))
+                .map(Invocation::getRawArguments)
+                .toList();
+    }
+
 }
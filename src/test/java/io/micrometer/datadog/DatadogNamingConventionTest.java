@@ -79,4 +79,38 @@ class DatadogNamingConventionTest {
         assertThat(convention.tagValue("value\"")).isEqualTo("value\\\"");
     }
 
+    @Test
+    void plainInputsAreReturnedAsIs() {
+        String name = "http.server.requests";
+        String tagValue = "/api/v1/users";
+
+        assertThat(convention.name(name, Meter.Type.TIMER, null)).isSameAs(name);
+        assertThat(convention.tagValue(tagValue)).isSameAs(tagValue);
+    }
+
+    @Test
+    void sanitizedInputsAreMemoized() {
+        String name = convention.name("1/name...", Meter.Type.GAUGE, null);
+
+        assertThat(name).isEqualTo("m.1_name");
+        assertThat(convention.name("1/name...", Meter.Type.GAUGE, null)).isSameAs(name);
+    }
+
+    @Test
+    void trailingDotsAndLongNames() {
+        assertThat(convention.name("name.", Meter.Type.GAUGE, null)).isEqualTo("name");
+        assertThat(convention.name("a".repeat(250), Meter.Type.GAUGE, null)).hasSize(200);
+        assertThat(convention.name("a".repeat(199) + "..", Meter.Type.GAUGE, null)).isEqualTo("a".repeat(199));
+    }
+
+    @Test
+    void memoIsBounded() {
+        DatadogNamingConvention.Memo memo = new DatadogNamingConvention.Memo(100);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(memo.get("key" + i, String::toUpperCase)).isEqualTo("KEY" + i);
+        }
+
+        assertThat(memo.size()).isLessThanOrEqualTo(100);
+    }
+
 }
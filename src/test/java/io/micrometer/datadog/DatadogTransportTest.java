@@ -0,0 +1,94 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.MockClock;
+import org.junit.jupiter.api.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+
+class DatadogTransportTest {
+
+    private final MockClock clock = new MockClock();
+
+    @Test
+    void registriesShareOneClientWithTheirOwnPrefix() throws Exception {
+        try (DatagramSocket listener = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            int port = listener.getLocalPort();
+            DatadogTransport transport = DatadogTransport.create(config("unused", port));
+
+            DatadogMeterRegistry tenantA = registry(transport, "tenant.a", port);
+            DatadogMeterRegistry tenantB = registry(transport, "tenant.b", port);
+            transport.close();
+
+            tenantA.counter("requests").increment();
+            tenantB.counter("requests").increment(2);
+            clock.add(Duration.ofMinutes(1));
+            tenantA.publish();
+            tenantA.close();
+            // still open for tenant b
+            tenantB.publish();
+
+            assertThat(receive(listener, 2)).containsExactlyInAnyOrder("tenant.a.requests:1|c|@1.000000|#\"statistic:count\"",
+                    "tenant.b.requests:2|c|@1.000000|#\"statistic:count\"");
+
+            tenantB.close();
+            assertThatIllegalStateException().isThrownBy(() -> registry(transport, "tenant.c", port));
+        }
+    }
+
+    private DatadogMeterRegistry registry(DatadogTransport transport, String prefix, int port) {
+        return DatadogMeterRegistry.builder(config(prefix, port)).clock(clock).transport(transport).build();
+    }
+
+    private static DatadogConfig config(String prefix, int port, String... keysAndValues) {
+        Map<String, String> props = new HashMap<>();
+        // properties are looked up under the prefix
+        props.put(prefix + ".enabled", "false");
+        props.put(prefix + ".statsdAddress", "127.0.0.1:" + port);
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            props.put(prefix + "." + keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return new DatadogConfig() {
+            @Override
+            public String get(String key) {
+                return props.get(key);
+            }
+
+            @Override
+            public String prefix() {
+                return prefix;
+            }
+        };
+    }
+
+    private static List<String> receive(DatagramSocket listener, int lines) throws Exception {
+        listener.setSoTimeout(5000);
+        byte[] buffer = new byte[65536];
+        List<String> received = new ArrayList<>();
+        while (received.size() < lines) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                listener.receive(packet);
+            }
+            catch (SocketTimeoutException e) {
+                break;
+            }
+            String packets = new String(buffer, 0, packet.getLength(), StandardCharsets.UTF_8);
+            received.addAll(Arrays.asList(packets.split("\n")));
+        }
+        return received;
+    }
+
+}
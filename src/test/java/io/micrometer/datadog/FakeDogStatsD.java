@@ -0,0 +1,250 @@
+package io.micrometer.datadog;
+
+import jnr.unixsocket.UnixDatagramChannel;
+import jnr.unixsocket.UnixSocketAddress;
+import jnr.unixsocket.UnixSocketOptions;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-process stand-in for the Agent's DogStatsD server, listening on UDP or a Unix
+ * domain socket, that counts what arrives: packets, bytes, lines, and datapoints by
+ * metric name and type. A packed distribution line counts one datapoint per value.
+ * Datapoints sent with a sample rate are also counted scaled back up by it, as the Agent
+ * counts them.
+ * <p>
+ * A sender's losses are what it sent less {@link #datapoints()}, once
+ * {@link #awaitDatapoints} has given the last packets time to arrive.
+ */
+final class FakeDogStatsD implements Closeable {
+
+    private static final int RECEIVE_BUFFER_BYTES = 8 * 1024 * 1024;
+
+    private final DatagramChannel channel;
+
+    private final String address;
+
+    private final Thread reader;
+
+    private volatile boolean running = true;
+
+    private final LongAdder packets = new LongAdder();
+
+    private final LongAdder bytes = new LongAdder();
+
+    private final LongAdder lines = new LongAdder();
+
+    private final LongAdder datapoints = new LongAdder();
+
+    private final LongAdder malformed = new LongAdder();
+
+    private final Map<String, LongAdder> datapointsByMetric = new ConcurrentHashMap<>();
+
+    private final Map<String, DoubleAdder> scaledDatapointsByMetric = new ConcurrentHashMap<>();
+
+    private volatile long lastPacketNanos = System.nanoTime();
+
+    private FakeDogStatsD(DatagramChannel channel, String address) {
+        this.channel = channel;
+        this.address = address;
+        this.reader = new Thread(this::read, "fake-dogstatsd");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    static FakeDogStatsD udp() throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_BYTES);
+        channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        int port = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+        return new FakeDogStatsD(channel, "udp://127.0.0.1:" + port);
+    }
+
+    static FakeDogStatsD uds(File socket) throws IOException {
+        UnixDatagramChannel channel = UnixDatagramChannel.open();
+        channel.setOption(UnixSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_BYTES);
+        // so that the reader notices when it is closed
+        channel.setOption(UnixSocketOptions.SO_RCVTIMEO, 100);
+        channel.bind(new UnixSocketAddress(socket));
+        return new FakeDogStatsD(channel, "unix://" + socket.getAbsolutePath());
+    }
+
+    /**
+     * @return The address to set as {@link DatadogConfig#statsdAddress()}.
+     */
+    String address() {
+        return address;
+    }
+
+    long packets() {
+        return packets.sum();
+    }
+
+    long bytes() {
+        return bytes.sum();
+    }
+
+    long lines() {
+        return lines.sum();
+    }
+
+    long datapoints() {
+        return datapoints.sum();
+    }
+
+    /**
+     * @return Datapoints received of metrics whose name starts with {@code namePrefix},
+     * leaving out, say, the client's own telemetry.
+     */
+    long datapoints(String namePrefix) {
+        long sum = 0;
+        for (Map.Entry<String, LongAdder> metric : datapointsByMetric.entrySet()) {
+            if (metric.getKey().startsWith(namePrefix)) {
+                sum += metric.getValue().sum();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @return Datapoints received of metrics whose name starts with {@code namePrefix},
+     * each counted as one over its sample rate.
+     */
+    double scaledDatapoints(String namePrefix) {
+        double sum = 0;
+        for (Map.Entry<String, DoubleAdder> metric : scaledDatapointsByMetric.entrySet()) {
+            if (metric.getKey().startsWith(namePrefix)) {
+                sum += metric.getValue().sum();
+            }
+        }
+        return sum;
+    }
+
+    long malformed() {
+        return malformed.sum();
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} that the last packet arrived at.
+     */
+    long lastPacketNanos() {
+        return lastPacketNanos;
+    }
+
+    /**
+     * @return Datapoints received by metric name and type, keyed like {@code my.counter|c}.
+     */
+    Map<String, Long> datapointsByMetric() {
+        Map<String, Long> counts = new TreeMap<>();
+        datapointsByMetric.forEach((metric, count) -> counts.put(metric, count.sum()));
+        return counts;
+    }
+
+    /**
+     * Waits until {@code expected} datapoints of metrics whose name starts with
+     * {@code namePrefix} have arrived, or until nothing has arrived for
+     * {@code quietMillis}.
+     * @return The datapoints of those metrics received.
+     */
+    long awaitDatapoints(String namePrefix, long expected, long quietMillis) throws InterruptedException {
+        long quietNanos = TimeUnit.MILLISECONDS.toNanos(quietMillis);
+        long since = System.nanoTime();
+        while (datapoints(namePrefix) < expected
+                && System.nanoTime() - Math.max(since, lastPacketNanos) < quietNanos) {
+            Thread.sleep(5);
+        }
+        return datapoints(namePrefix);
+    }
+
+    void reset() {
+        packets.reset();
+        bytes.reset();
+        lines.reset();
+        datapoints.reset();
+        malformed.reset();
+        datapointsByMetric.clear();
+        scaledDatapointsByMetric.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        channel.close();
+        try {
+            reader.join(TimeUnit.SECONDS.toMillis(1));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void read() {
+        ByteBuffer buffer = ByteBuffer.allocate(65536);
+        while (running) {
+            buffer.clear();
+            try {
+                if (channel.receive(buffer) == null || buffer.position() == 0) {
+                    continue;
+                }
+            }
+            catch (IOException e) {
+                // closed, or the Unix domain socket's receive timed out
+                continue;
+            }
+            lastPacketNanos = System.nanoTime();
+            packets.increment();
+            bytes.add(buffer.position());
+            buffer.flip();
+            count(StandardCharsets.UTF_8.decode(buffer).toString());
+        }
+    }
+
+    private void count(String packet) {
+        for (String line : packet.split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            lines.increment();
+            // name:value[:value...]|type[|@rate][|#tags][|T...]
+            int pipe = line.indexOf('|');
+            int colon = line.indexOf(':');
+            if (pipe < 0 || colon < 0 || colon > pipe) {
+                malformed.increment();
+                continue;
+            }
+            int typeEnd = line.indexOf('|', pipe + 1);
+            String type = line.substring(pipe + 1, typeEnd < 0 ? line.length() : typeEnd);
+            int values = 0;
+            for (int i = colon; i < pipe; i++) {
+                if (line.charAt(i) == ':') {
+                    values++;
+                }
+            }
+            double sampleRate = 1.0;
+            int rate = line.indexOf("|@", pipe);
+            if (rate >= 0) {
+                int rateEnd = line.indexOf('|', rate + 2);
+                sampleRate = Double.parseDouble(line.substring(rate + 2, rateEnd < 0 ? line.length() : rateEnd));
+            }
+            String metric = line.substring(0, colon) + "|" + type;
+            datapoints.add(values);
+            datapointsByMetric.computeIfAbsent(metric, m -> new LongAdder()).add(values);
+            scaledDatapointsByMetric.computeIfAbsent(metric, m -> new DoubleAdder()).add(values / sampleRate);
+        }
+    }
+
+}
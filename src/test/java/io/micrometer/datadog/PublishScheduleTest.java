@@ -0,0 +1,42 @@
+package io.micrometer.datadog;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PublishScheduleTest {
+
+    private static final long STEP = 60_000;
+
+    @Test
+    void offsetIsTheSameForTheSameInstance() {
+        assertThat(PublishSchedule.offsetMillis(STEP, 0.8, "web-1", 42))
+            .isEqualTo(PublishSchedule.offsetMillis(STEP, 0.8, "web-1", 42));
+    }
+
+    @Test
+    void offsetsAreSpreadAcrossTheJitteredPartOfTheStep() {
+        Set<Long> seconds = new HashSet<>();
+        for (int host = 0; host < 1000; host++) {
+            long offset = PublishSchedule.offsetMillis(STEP, 0.5, "web-" + host, 1);
+            assertThat(offset).isBetween(PublishSchedule.MARGIN_MILLIS, STEP / 2 - 1 + PublishSchedule.MARGIN_MILLIS);
+            seconds.add(offset / 1000);
+        }
+        // every second of the first half of the step has a publisher
+        assertThat(seconds).hasSize(30);
+
+        // never on the boundary itself
+        assertThat(PublishSchedule.offsetMillis(STEP, 0, "web-1", 1)).isEqualTo(PublishSchedule.MARGIN_MILLIS);
+    }
+
+    @Test
+    void initialDelayIsUntilTheOffsetIntoTheNextStep() {
+        assertThat(PublishSchedule.initialDelayMillis(10 * STEP + 1_000, STEP, 5_000)).isEqualTo(4_000);
+        assertThat(PublishSchedule.initialDelayMillis(10 * STEP + 6_000, STEP, 5_000)).isEqualTo(STEP - 1_000);
+        assertThat(PublishSchedule.initialDelayMillis(10 * STEP + 5_000, STEP, 5_000)).isEqualTo(STEP);
+    }
+
+}
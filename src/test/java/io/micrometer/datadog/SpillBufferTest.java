@@ -0,0 +1,93 @@
+package io.micrometer.datadog;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SpillBufferTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void oldestPacketsAreEvicted() throws Exception {
+        try (SpillBuffer spill = new SpillBuffer(dir.resolve("spill"), 256, 128)) {
+            int evicted = 0;
+            for (int i = 0; i < 20; i++) {
+                evicted += spill.append(packet("my.gauge:" + i + "|g\n"), 60);
+            }
+
+            assertThat(evicted).isPositive();
+            assertThat(spill.sizeBytes()).isLessThanOrEqualTo(256);
+            assertThat(replay(spill, Integer.MAX_VALUE)).last().isEqualTo("my.gauge:19|g|T60\n");
+        }
+    }
+
+    @Test
+    void onlyCountsAndGaugesAreSpilled() throws Exception {
+        try (SpillBuffer spill = new SpillBuffer(dir.resolve("spill"), 1024, 128)) {
+            spill.append(packet("a:1|c|#k:v\nb:1:2|d\nc:2|g\n"), 60);
+
+            assertThat(replay(spill, Integer.MAX_VALUE)).containsExactly("a:1|c|#k:v|T60\nc:2|g|T60\n");
+        }
+    }
+
+    @Test
+    void replayIsBoundedAndSurvivesRestart() throws Exception {
+        Path file = dir.resolve("spill");
+        try (SpillBuffer spill = new SpillBuffer(file, 1024, 32)) {
+            for (int i = 0; i < 5; i++) {
+                spill.append(packet("my.gauge:" + i + "|g\n"), 60);
+            }
+            assertThat(replay(spill, 1)).containsExactly("my.gauge:0|g|T60\n");
+        }
+        try (SpillBuffer spill = new SpillBuffer(file, 1024, 32)) {
+            assertThat(replay(spill, Integer.MAX_VALUE)).hasSize(4).first().isEqualTo("my.gauge:1|g|T60\n");
+            assertThat(spill.sizeBytes()).isZero();
+        }
+    }
+
+    @Test
+    void packetsTooLargeForANewPacketSizeAreDropped() throws Exception {
+        Path file = dir.resolve("spill");
+        String line = "my.gauge:1|g|#" + "k:v,".repeat(20) + "k:v\n";
+        try (SpillBuffer spill = new SpillBuffer(file, 1024, 128)) {
+            spill.append(packet(line), 60);
+        }
+        try (SpillBuffer spill = new SpillBuffer(file, 1024, 256)) {
+            assertThat(spill.sizeBytes()).isPositive();
+        }
+        try (SpillBuffer spill = new SpillBuffer(file, 1024, 32)) {
+            assertThat(spill.sizeBytes()).isZero();
+            assertThat(replay(spill, Integer.MAX_VALUE)).isEmpty();
+        }
+    }
+
+    @Test
+    void failedReplayIsKept() throws Exception {
+        try (SpillBuffer spill = new SpillBuffer(dir.resolve("spill"), 1024, 32)) {
+            spill.append(packet("my.gauge:1|g\n"), 60);
+
+            assertThat(spill.replay(packet -> false, Integer.MAX_VALUE)).isZero();
+            assertThat(replay(spill, Integer.MAX_VALUE)).hasSize(1);
+        }
+    }
+
+    private static ByteBuffer packet(String lines) {
+        return ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> replay(SpillBuffer spill, int maxBytes) {
+        List<String> packets = new ArrayList<>();
+        spill.replay(packet -> packets.add(StandardCharsets.UTF_8.decode(packet).toString()), maxBytes);
+        return packets;
+    }
+
+}
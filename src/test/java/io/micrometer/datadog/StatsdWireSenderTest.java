@@ -0,0 +1,198 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.MockClock;
+import io.micrometer.core.instrument.Timer;
+import jnr.unixsocket.UnixDatagramChannel;
+import jnr.unixsocket.UnixSocketAddress;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+class StatsdWireSenderTest {
+
+    private final MockClock clock = new MockClock();
+
+    private final Map<String, String> props = new HashMap<>();
+
+    private final DatadogConfig config = props::get;
+
+    // gauges only hold on to their value weakly
+    private final AtomicInteger gaugeValue = new AtomicInteger(7);
+
+    @Test
+    void valuesAreFormattedLikeTheClient() {
+        NumberFormat format = NumberFormat.getInstance(Locale.US);
+        format.setGroupingUsed(false);
+        format.setMaximumFractionDigits(6);
+
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        double[] values = { 0, 1, -1, 0.5, 1.05, 0.000001, 0.0000004, -123.456789, 1e12 + 0.25, 9e15, 42.0001 };
+        for (double value : values) {
+            assertThat(format(buffer, value)).isEqualTo(format.format(value));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            double value = ThreadLocalRandom.current().nextDouble(-1e6, 1e6);
+            // both round to 6 fraction digits, but not always the same way on exact ties
+            assertThat(Double.parseDouble(format(buffer, value))).isCloseTo(value, offset(1e-6));
+        }
+    }
+
+    @Test
+    void publishesOverUdp() throws Exception {
+        try (DatagramChannel listener = DatagramChannel.open()) {
+            listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            int port = ((InetSocketAddress) listener.getLocalAddress()).getPort();
+            props.put("datadog.statsdAddress", "udp://127.0.0.1:" + port);
+
+            DatadogMeterRegistry registry = registry();
+            registry.counter("my.counter", "k", "v").increment(3);
+            registry.gauge("my.gauge", gaugeValue);
+            clock.add(config.step());
+            registry.publish();
+            registry.close();
+
+            assertThat(receive(listener)).containsExactlyInAnyOrder(
+                    "datadog.my.counter:3|c|#\"k:v\",\"statistic:count\"",
+                    "datadog.my.gauge:7|g|#\"statistic:value\"");
+        }
+    }
+
+    @Test
+    void packsDistributionsOverUnixDomainSocket(@TempDir Path dir) throws Exception {
+        File socket = dir.resolve("dsd.socket").toFile();
+        try (UnixDatagramChannel listener = UnixDatagramChannel.open()) {
+            listener.bind(new UnixSocketAddress(socket));
+            props.put("datadog.statsdAddress", "unix://" + socket.getAbsolutePath());
+            props.put("datadog.packDistributions", "true");
+
+            DatadogMeterRegistry registry = registry();
+            Timer timer = registry.timer("my.timer");
+            timer.record(1, TimeUnit.SECONDS);
+            timer.record(2, TimeUnit.SECONDS);
+            clock.add(config.step());
+            registry.publish();
+            registry.close();
+
+            assertThat(receive(listener)).containsExactly("datadog.my.timer:2:3000:2000|d");
+        }
+    }
+
+    @Test
+    void constantTagsMatchTheClients() {
+        Map<String, String> env = new HashMap<>();
+        assertThat(StatsdWireSender.constantTags(env::get)).isEmpty();
+
+        env.put("DD_ENV", "prod");
+        env.put("DD_SERVICE", "checkout");
+        env.put("DD_VERSION", " ");
+        env.put("DD_ENTITY_ID", "1234");
+        assertThat(StatsdWireSender.constantTags(env::get))
+                .isEqualTo("dd.internal.entity_id:1234,service:checkout,env:prod");
+
+        env.put("DD_VERSION", "1.2.3");
+        assertThat(StatsdWireSender.constantTags(env::get))
+                .isEqualTo("dd.internal.entity_id:1234,service:checkout,env:prod,version:1.2.3");
+    }
+
+    @Test
+    void spillsWhileServerIsDownAndReplaysLater(@TempDir Path dir) throws Exception {
+        File socket = dir.resolve("dsd.socket").toFile();
+        props.put("datadog.statsdAddress", "unix://" + socket.getAbsolutePath());
+        props.put("datadog.spillFile", dir.resolve("spill").toString());
+        props.put("datadog.packDistributions", "true");
+
+        DatadogMeterRegistry registry = registry();
+        registry.counter("my.counter").increment(3);
+        registry.timer("my.timer").record(1, TimeUnit.SECONDS);
+        clock.add(config.step());
+        registry.publish();
+        assertThat(registry.publishStats().getPacketsSpilled()).isEqualTo(1);
+
+        try (UnixDatagramChannel listener = UnixDatagramChannel.open()) {
+            listener.bind(new UnixSocketAddress(socket));
+            clock.add(config.step());
+            registry.publish();
+            registry.close();
+
+            assertThat(receive(listener)).contains("datadog.my.counter:3|c|#\"statistic:count\"|T60")
+                    .doesNotContain("datadog.my.counter:3|c|#\"statistic:count\"|T120")
+                    .noneMatch(line -> line.startsWith("datadog.my.timer") && line.contains("|T"));
+            assertThat(registry.publishStats().getPacketsReplayed()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void countsSpilledPacketsEvictedFromAFullSpillFile(@TempDir Path dir) {
+        props.put("datadog.statsdAddress", "unix://" + dir.resolve("dsd.socket").toFile().getAbsolutePath());
+        props.put("datadog.spillFile", dir.resolve("spill").toString());
+        props.put("datadog.spillMaxBytes", "65536");
+
+        DatadogMeterRegistry registry = registry();
+        for (int i = 0; i < 2000; i++) {
+            registry.counter("my.counter", "i", Integer.toString(i)).increment();
+        }
+        clock.add(config.step());
+        registry.publish();
+        registry.close();
+
+        assertThat(registry.publishStats().getPacketsEvicted()).isPositive()
+                .isLessThan(registry.publishStats().getPacketsSpilled());
+    }
+
+    private DatadogMeterRegistry registry() {
+        props.put("datadog.builtInSender", "true");
+        props.put("datadog.enabled", "false");
+        return DatadogMeterRegistry.builder(config).clock(clock).build();
+    }
+
+    private static String format(ByteBuffer buffer, double value) {
+        buffer.clear();
+        StatsdWireSender.putDouble(buffer, value);
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII);
+    }
+
+    private static List<String> receive(DatagramChannel listener) throws Exception {
+        listener.configureBlocking(false);
+        ByteBuffer buffer = ByteBuffer.allocate(65536);
+        List<String> lines = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (lines.isEmpty() && System.nanoTime() < deadline) {
+            buffer.clear();
+            try {
+                while (listener.receive(buffer) != null) {
+                    buffer.flip();
+                    String packet = StandardCharsets.UTF_8.decode(buffer).toString();
+                    lines.addAll(Arrays.asList(packet.split("\n")));
+                    buffer.clear();
+                }
+            }
+            catch (IOException e) {
+                // the Unix domain socket channel fails rather than return nothing
+            }
+            Thread.sleep(10);
+        }
+        return lines;
+    }
+
+}
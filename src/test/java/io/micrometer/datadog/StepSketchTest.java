@@ -0,0 +1,154 @@
+package io.micrometer.datadog;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MockClock;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+class StepSketchTest {
+
+    private static final long STEP_MILLIS = Duration.ofMinutes(1).toMillis();
+
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private final MockClock clock = new MockClock();
+
+    @Test
+    void quantilesAreWithinTheRelativeAccuracy() {
+        StepSketch sketch = sketch();
+        double[] values = new double[100_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i + 1;
+            sketch.record(values[i]);
+        }
+
+        StepSketch.Snapshot snapshot = nextStep(sketch);
+        assertThat(snapshot.count).isEqualTo(values.length);
+        assertThat(snapshot.max).isEqualTo(100_000);
+        for (double q : QUANTILES) {
+            assertWithinRelativeAccuracy(snapshot.valueAtQuantile(q), exact(values, q));
+        }
+    }
+
+    @Test
+    void binsAreBoundedOverAHugeRange() {
+        StepSketch sketch = sketch();
+        // evenly spread in log space from 1e-9 to 1e12, more than the bins can cover
+        double[] values = new double[200_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.pow(10, -9 + 21.0 * i / values.length);
+            sketch.record(values[i]);
+        }
+
+        StepSketch.Snapshot snapshot = nextStep(sketch);
+        assertThat(snapshot.bins()).isLessThanOrEqualTo(StepSketch.MAX_BINS);
+        // the lowest bins are collapsed, so the high quantiles stay accurate
+        assertWithinRelativeAccuracy(snapshot.valueAtQuantile(0.99), exact(values, 0.99));
+        assertWithinRelativeAccuracy(snapshot.valueAtQuantile(0.999), exact(values, 0.999));
+    }
+
+    @Test
+    void concurrentRecordingsAreAllCounted() throws Exception {
+        StepSketch sketch = sketch();
+        int threads = 8;
+        int perThread = 100_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                // each thread widens its stripe in a different direction
+                for (int i = 0; i < perThread; i++) {
+                    sketch.record(thread % 2 == 0 ? i + 1 : perThread - i);
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+        StepSketch.Snapshot snapshot = nextStep(sketch);
+        assertThat(snapshot.count).isEqualTo((long) threads * perThread);
+        assertThat(snapshot.countAtOrBelow(Double.MAX_VALUE)).isEqualTo((long) threads * perThread);
+        assertWithinRelativeAccuracy(snapshot.valueAtQuantile(0.5), perThread / 2.0);
+    }
+
+    @Test
+    void eachStepIsDrainedOnce() {
+        StepSketch sketch = sketch();
+        sketch.record(10);
+        sketch.record(0);
+
+        StepSketch.Snapshot snapshot = nextStep(sketch);
+        assertThat(snapshot.count).isEqualTo(2);
+        assertThat(snapshot.total).isEqualTo(10);
+        assertThat(snapshot.countAtOrBelow(0)).isEqualTo(1);
+        assertThat(sketch.snapshot()).isSameAs(snapshot);
+
+        assertThat(nextStep(sketch).count).isZero();
+    }
+
+    @Test
+    @Timeout(10)
+    void infiniteValuesAreCountedAboveEveryBin() {
+        StepSketch sketch = sketch();
+        sketch.record(5);
+        sketch.record(Double.POSITIVE_INFINITY);
+        sketch.record(Double.NaN);
+
+        StepSketch.Snapshot snapshot = nextStep(sketch);
+        assertThat(snapshot.count).isEqualTo(3);
+        assertThat(snapshot.max).isEqualTo(Double.POSITIVE_INFINITY);
+        assertWithinRelativeAccuracy(snapshot.valueAtQuantile(0.9), 5);
+        assertThat(snapshot.valueAtQuantile(1)).isEqualTo(Double.POSITIVE_INFINITY);
+        assertThat(snapshot.countAtOrBelow(5)).isEqualTo(2);
+        assertThat(snapshot.countAtOrBelow(Double.POSITIVE_INFINITY)).isEqualTo(3);
+    }
+
+    private StepSketch sketch() {
+        DistributionStatisticConfig config = DistributionStatisticConfig.builder()
+            .percentiles(QUANTILES)
+            .build()
+            .merge(DistributionStatisticConfig.DEFAULT);
+        Meter.Id id = new Meter.Id("my.summary", Tags.empty(), null, null, Meter.Type.DISTRIBUTION_SUMMARY);
+        return new StepSketch(id, clock, STEP_MILLIS, config, 1);
+    }
+
+    private StepSketch.Snapshot nextStep(StepSketch sketch) {
+        clock.add(Duration.ofMillis(STEP_MILLIS));
+        return sketch.snapshot();
+    }
+
+    /**
+     * @return The value of rank {@code q * (n - 1)}, as the sketch ranks them.
+     */
+    private static double exact(double[] values, double q) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) (q * (sorted.length - 1))];
+    }
+
+    private static void assertWithinRelativeAccuracy(double actual, double expected) {
+        assertThat(actual).isCloseTo(expected, offset(expected * StepSketch.RELATIVE_ACCURACY * 1.0001));
+    }
+
+}